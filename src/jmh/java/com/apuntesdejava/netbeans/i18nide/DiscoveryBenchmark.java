@@ -0,0 +1,109 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Bundle discovery through {@link java.util.jar.JarFile} against discovery
+ * through the mapped central directory, and the scan and extraction on the
+ * platform thread pool against the same work on virtual threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DiscoveryBenchmark {
+
+    @Benchmark
+    public int jarFile(SyntheticTree tree, Throughput throughput) throws IOException {
+        int found = 0;
+        for (Path jar : tree.jars) {
+            if (NetbeansScanner.containsBundlesJarFile(jar)) {
+                found++;
+            }
+        }
+        throughput.add(tree);
+        return found;
+    }
+
+    @Benchmark
+    public int mappedDirectory(SyntheticTree tree, Throughput throughput) throws IOException {
+        int found = 0;
+        for (Path jar : tree.jars) {
+            if (NetbeansScanner.containsBundles(jar, NetbeansScanner.BUNDLE_BYTES)) {
+                found++;
+            }
+        }
+        throughput.add(tree);
+        return found;
+    }
+
+    @Benchmark
+    public Set<Path> scan(SyntheticTree tree, Threads threads, Throughput throughput) {
+        Set<Path> files = new NetbeansScanner(threads.concurrency).scan(tree.netbeansDir);
+        throughput.add(tree);
+        return files;
+    }
+
+    @Benchmark
+    public Map<Path, Throwable> extract(SyntheticTree tree, Threads threads, Throughput throughput) {
+        Map<Path, Throwable> errors = new BundleExtractor(List.of(SyntheticTree.LANG_BUNDLE), threads.concurrency, new RunMetrics("bench")).extract(threads.entries);
+        throughput.add(tree);
+        return errors;
+    }
+
+    /**
+     * Before Java 21 the virtual runs fall back to the platform pool.
+     */
+    @State(Scope.Benchmark)
+    public static class Threads {
+
+        @Param({"false", "true"})
+        public boolean virtual;
+
+        @Param("4")
+        public int threads;
+
+        Concurrency concurrency;
+        List<EntryLocalization> entries;
+
+        @Setup
+        public void prepare(SyntheticTree tree) {
+            concurrency = new Concurrency(virtual, threads, 0);
+            entries = tree.entries();
+        }
+    }
+
+}
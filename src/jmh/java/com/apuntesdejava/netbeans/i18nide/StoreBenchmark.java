@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Store of a translation for every bundle of the tree, with one or several
+ * threads. The original JARs are put back before each invocation, outside of
+ * the measured time.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StoreBenchmark {
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private List<EntryLocalization> entries;
+    private Path pristine;
+
+    @Setup
+    public void prepare(SyntheticTree tree) throws IOException {
+        entries = tree.entries();
+        new BundleExtractor(SyntheticTree.LANG_BUNDLE, Runtime.getRuntime().availableProcessors()).extract(entries);
+        for (EntryLocalization entry : entries) {
+            int b = 0;
+            for (Path bundle : entry.getBundleOutputPath()) {
+                Path translation = Paths.get(bundle.getParent().toString(), SyntheticTree.LANG_BUNDLE);
+                Files.writeString(translation, tree.bundle("Traduccion", b++), StandardCharsets.ISO_8859_1);
+            }
+        }
+        pristine = tree.root.resolve("pristine");
+        for (Path jar : tree.jars) {
+            Path copy = pristine.resolve(tree.netbeansDir.relativize(jar).toString());
+            Files.createDirectories(copy.getParent());
+            Files.copy(jar, copy);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void restore(SyntheticTree tree) throws IOException {
+        for (Path jar : tree.jars) {
+            Files.copy(pristine.resolve(tree.netbeansDir.relativize(jar).toString()), jar, REPLACE_EXISTING);
+            String backupPrefix = jar.getFileName().toString() + '-';
+            try (Stream<Path> siblings = Files.list(jar.getParent())) {
+                siblings.filter((f) -> f.getFileName().toString().startsWith(backupPrefix)).forEach((f) -> f.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    public void store(SyntheticTree tree, Throughput throughput) throws IOException {
+        try (StoreJournal journal = StoreJournal.open(tree.root.resolve(StoreJournal.FILENAME))) {
+            new Storer(Collections.singletonList(SyntheticTree.LANG_BUNDLE), new Concurrency(threads), new RunMetrics("store")).store(entries, new StoreManifest(), false, journal);
+        }
+        throughput.add(tree);
+    }
+
+}
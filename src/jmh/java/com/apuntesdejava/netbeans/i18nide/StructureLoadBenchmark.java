@@ -0,0 +1,144 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.json.bind.Jsonb;
+import javax.json.bind.JsonbBuilder;
+import javax.json.bind.JsonbConfig;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cold-start load of the structure: every fork loads it once, with JSON-B
+ * bootstrapped from scratch for structure.json.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class StructureLoadBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Structure {
+
+        @Param("5000")
+        public int entryCount;
+
+        @Param("10")
+        public int bundlesPerEntry;
+
+        Path root;
+        Path json;
+        Path index;
+
+        @Setup
+        public void create() throws IOException {
+            LogManager.getLogger("com.apuntesdejava.netbeans").setLevel(Level.WARN);
+            root = Files.createTempDirectory("i18n-structure");
+            json = root.resolve("structure.json");
+            index = root.resolve("structure.idx");
+            Path netbeansDir = root.resolve("netbeans");
+            Path outputDir = root.resolve("output");
+            List<EntryLocalization> entries = new ArrayList<>(entryCount);
+            for (int i = 0; i < entryCount; i++) {
+                Path jar = netbeansDir.resolve("cluster" + i % 20).resolve("modules").resolve("org-netbeans-module" + i + ".jar");
+                Path output = outputDir.resolve(netbeansDir.relativize(jar));
+                EntryLocalization entry = new EntryLocalization(jar, output);
+                JarFingerprint fingerprint = new JarFingerprint();
+                fingerprint.setSize(i * 1024L);
+                fingerprint.setLastModified(1560000000000L + i);
+                entry.setFingerprint(fingerprint);
+                List<Path> bundles = new ArrayList<>(bundlesPerEntry);
+                for (int b = 0; b < bundlesPerEntry; b++) {
+                    bundles.add(output.resolve("org/netbeans/modules/module" + i + "/p" + b + "/Bundle.properties"));
+                }
+                entry.setBundleOutputPath(bundles);
+                entries.add(entry);
+            }
+            try (Jsonb jsonb = jsonb(); OutputStream os = Files.newOutputStream(json)) {
+                jsonb.toJson(entries, os);
+            } catch (Exception ex) {
+                throw new IOException(ex);
+            }
+            StructureIndex.write(entries, index);
+        }
+
+        @TearDown
+        public void delete() throws IOException {
+            Files.deleteIfExists(json);
+            Files.deleteIfExists(index);
+            Files.deleteIfExists(root);
+        }
+    }
+
+    private static Jsonb jsonb() {
+        return JsonbBuilder.create(new JsonbConfig()
+                .withSerializers(new PathSerializer())
+                .withDeserializers(new PathDeserializer()));
+    }
+
+    @Benchmark
+    public List<EntryLocalization> json(Structure structure) throws Exception {
+        try (Jsonb jsonb = jsonb(); InputStream is = Files.newInputStream(structure.json)) {
+            return jsonb.fromJson(is, new ArrayList<EntryLocalization>() {
+            }.getClass().getGenericSuperclass());
+        }
+    }
+
+    /**
+     * Maps the index and decodes every entry, as init does.
+     */
+    @Benchmark
+    public int index(Structure structure) throws IOException {
+        List<EntryLocalization> entries = StructureIndex.map(structure.index);
+        int bundles = 0;
+        for (EntryLocalization entry : entries) {
+            bundles += entry.getBundleOutputPath().size();
+        }
+        return bundles;
+    }
+
+    /**
+     * Maps the index without decoding the entries.
+     */
+    @Benchmark
+    public int indexOpen(Structure structure) throws IOException {
+        return StructureIndex.map(structure.index).size();
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A NetBeans-like installation generated in a temporary directory: JARs
+ * spread over nested directories, each one with class-like entries and
+ * {@code Bundle.properties} files.
+ */
+@State(Scope.Benchmark)
+public class SyntheticTree {
+
+    static final String LANG_BUNDLE = "Bundle_es.properties";
+
+    @Param("200")
+    public int jarCount;
+
+    @Param("3")
+    public int depth;
+
+    @Param("100")
+    public int entriesPerJar;
+
+    @Param("10")
+    public int bundlesPerJar;
+
+    @Param("4096")
+    public int entrySize;
+
+    @Param("50")
+    public int keysPerBundle;
+
+    Path root;
+    Path netbeansDir;
+    Path outputDir;
+    List<Path> jars;
+    long jarBytes;
+
+    @Setup
+    public void create() throws IOException {
+        LogManager.getLogger("com.apuntesdejava.netbeans").setLevel(Level.WARN);
+        root = Files.createTempDirectory("i18n-bench");
+        netbeansDir = root.resolve("netbeans");
+        outputDir = root.resolve("output");
+        jars = new ArrayList<>(jarCount);
+        Random random = new Random(42);
+        for (int j = 0; j < jarCount; j++) {
+            Path dir = netbeansDir.resolve("cluster" + (j % 4));
+            for (int d = 0; d < depth; d++) {
+                dir = dir.resolve("d" + ((j >> d) % 3));
+            }
+            Files.createDirectories(dir);
+            Path jar = dir.resolve("org-synthetic-m" + j + ".jar");
+            writeJar(jar, j, random);
+            jars.add(jar);
+            jarBytes += Files.size(jar);
+        }
+    }
+
+    private void writeJar(Path jar, int module, Random random) throws IOException {
+        byte[] content = new byte[entrySize];
+        try (OutputStream os = Files.newOutputStream(jar); JarOutputStream jos = new JarOutputStream(os)) {
+            for (int i = 0; i < entriesPerJar; i++) {
+                // half random, half repeated: compresses roughly like class files
+                random.nextBytes(content);
+                for (int k = content.length / 2; k < content.length; k++) {
+                    content[k] = (byte) (k % 7);
+                }
+                jos.putNextEntry(new JarEntry("org/synthetic/m" + module + "/p" + (i % bundlesPerJar) + "/C" + i + ".class"));
+                jos.write(content);
+                jos.closeEntry();
+            }
+            for (int b = 0; b < bundlesPerJar; b++) {
+                jos.putNextEntry(new JarEntry("org/synthetic/m" + module + "/p" + b + "/Bundle.properties"));
+                jos.write(bundle("Texto", b).getBytes(StandardCharsets.ISO_8859_1));
+                jos.closeEntry();
+            }
+        }
+    }
+
+    String bundle(String prefix, int bundle) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# Bundle ").append(bundle).append('\n');
+        for (int k = 0; k < keysPerBundle; k++) {
+            sb.append("LBL_Key").append(k).append('=').append(prefix).append(' ').append(k).append(" \\u00e1\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Builds the entries that init would create for the generated JARs.
+     */
+    List<EntryLocalization> entries() {
+        List<EntryLocalization> entries = new ArrayList<>(jars.size());
+        jars.forEach((jar) -> entries.add(new EntryLocalization(jar, outputDir.resolve(netbeansDir.relativize(jar).toString()))));
+        return entries;
+    }
+
+    double megabytes() {
+        return jarBytes / (1024.0 * 1024.0);
+    }
+
+    @TearDown
+    public void delete() throws IOException {
+        try (Stream<Path> walk = Files.walk(root)) {
+            walk.sorted(Comparator.reverseOrder()).forEach((f) -> f.toFile().delete());
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Read access to the entries of an archive, whatever holds it: a JAR or an
+ * NBM on disk, or a JAR nested in another archive. Entries are visited in
+ * archive order.
+ *
+ * @see Archives#open(java.nio.file.Path)
+ */
+public interface Archive extends Closeable {
+
+    /**
+     * Visits the entries until the visitor returns false.
+     */
+    void forEach(Visitor visitor) throws IOException;
+
+    interface Entry {
+
+        String getName();
+
+        boolean isDirectory();
+
+        /**
+         * @return the size of the entry in the archive, or -1 when not known
+         */
+        long getCompressedSize();
+
+        /**
+         * Opens the uncompressed content of the entry. The stream is valid
+         * only while the entry is visited.
+         */
+        InputStream open() throws IOException;
+    }
+
+    @FunctionalInterface
+    interface Visitor {
+
+        /**
+         * @return false to stop visiting
+         */
+        boolean visit(Entry entry) throws IOException;
+    }
+
+}
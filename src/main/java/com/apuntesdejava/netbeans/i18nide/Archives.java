@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.StringJoiner;
+import java.util.zip.ZipException;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Opens archives by path. A JAR nested in another archive is named by the
+ * path of the outer archive followed by {@code !} and the entry name, for
+ * example {@code update/org-foo.nbm!/netbeans/modules/org-foo.jar}. One level
+ * of nesting is supported.
+ */
+final class Archives {
+
+    static final String NBM = ".nbm";
+    private static final String NESTED_SEPARATOR = "!";
+
+    private Archives() {
+    }
+
+    /**
+     * Opens a JAR or NBM on disk, or a JAR nested in its outer archive.
+     */
+    static Archive open(Path path) throws IOException {
+        if (!isNested(path)) {
+            return new JarArchive(path);
+        }
+        JarArchive archive = JarArchive.nested(outer(path), entryName(path));
+        if (archive == null) {
+            throw new NoSuchFileException(path.toString());
+        }
+        return archive;
+    }
+
+    /**
+     * Tells if the file holds modules instead of being one, as an NBM does.
+     */
+    static boolean isContainer(Path file) {
+        return file.getFileName().toString().endsWith(NBM);
+    }
+
+    static boolean isNested(Path path) {
+        return separator(path) >= 0;
+    }
+
+    static Path nested(Path outer, String entryName) throws ZipException {
+        return Paths.get(outer.toString() + NESTED_SEPARATOR).resolve(entryPath(entryName));
+    }
+
+    /**
+     * Resolves an entry name under {@code dir}.
+     *
+     * @throws ZipException when the name would leave the directory, as
+     * {@code ../x} or an absolute name do
+     */
+    static Path resolve(Path dir, String entryName) throws ZipException {
+        return dir.resolve(entryPath(entryName));
+    }
+
+    /**
+     * Entry names come from archives of third parties, so they are
+     * normalized and may not climb out of the directory they are written to.
+     */
+    private static Path entryPath(String entryName) throws ZipException {
+        Path path;
+        try {
+            path = Paths.get(entryName).normalize();
+        } catch (InvalidPathException ex) {
+            throw new ZipException("Nombre de entrada invalido: " + entryName);
+        }
+        if (path.getRoot() != null || path.startsWith("..") || path.toString().isEmpty()) {
+            throw new ZipException("Entrada fuera del directorio: " + entryName);
+        }
+        return path;
+    }
+
+    /**
+     * @return the archive on disk that holds the nested JAR
+     */
+    static Path outer(Path nested) {
+        int i = separator(nested);
+        if (i < 0) {
+            throw new IllegalArgumentException("No es un JAR anidado: " + nested);
+        }
+        Path outer = nested.getRoot() == null ? nested.subpath(0, i + 1) : nested.getRoot().resolve(nested.subpath(0, i + 1));
+        return outer.resolveSibling(StringUtils.removeEnd(outer.getFileName().toString(), NESTED_SEPARATOR));
+    }
+
+    /**
+     * @return the name of the nested JAR inside its outer archive
+     */
+    static String entryName(Path nested) {
+        int i = separator(nested);
+        if (i < 0) {
+            throw new IllegalArgumentException("No es un JAR anidado: " + nested);
+        }
+        StringJoiner name = new StringJoiner("/");
+        nested.subpath(i + 1, nested.getNameCount()).forEach((p) -> name.add(p.toString()));
+        return name.toString();
+    }
+
+    private static int separator(Path path) {
+        for (int i = 0; i < path.getNameCount() - 1; i++) {
+            if (path.getName(i).toString().endsWith(NESTED_SEPARATOR)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
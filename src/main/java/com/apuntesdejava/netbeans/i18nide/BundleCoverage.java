@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Translation coverage of one {@code Bundle.properties} in one language, or
+ * the totals of a language when there is no bundle.
+ *
+ * <ul>
+ * <li>missing: keys of the bundle without translation</li>
+ * <li>stale: translated keys whose original text changed since the
+ * translation was stored (see {@link SourceHashes})</li>
+ * <li>identical: translated keys whose text is the same as the original,
+ * such as {@code OK} or a format; they count as translated, and are listed
+ * so a reviewer can spot the ones never translated; they do not make the
+ * bundle incomplete</li>
+ * <li>extra: translated keys that are no longer in the bundle</li>
+ * </ul>
+ */
+public class BundleCoverage {
+
+    private Path bundle;
+    private String lang;
+    private int keys;
+    private int missing;
+    private int stale;
+    private int identical;
+    private int extra;
+    private List<String> missingKeys = new ArrayList<>();
+    private List<String> staleKeys = new ArrayList<>();
+    private List<String> identicalKeys = new ArrayList<>();
+    private List<String> extraKeys = new ArrayList<>();
+
+    public BundleCoverage() {
+    }
+
+    public BundleCoverage(Path bundle, String lang) {
+        this.bundle = bundle;
+        this.lang = lang;
+    }
+
+    void addMissing(String key) {
+        missing++;
+        missingKeys.add(key);
+    }
+
+    void addStale(String key) {
+        stale++;
+        staleKeys.add(key);
+    }
+
+    void addIdentical(String key) {
+        identical++;
+        identicalKeys.add(key);
+    }
+
+    void addExtra(String key) {
+        extra++;
+        extraKeys.add(key);
+    }
+
+    /**
+     * Adds the counts of {@code other}; the keys are not copied.
+     */
+    void merge(BundleCoverage other) {
+        keys += other.keys;
+        missing += other.missing;
+        stale += other.stale;
+        identical += other.identical;
+        extra += other.extra;
+    }
+
+    public boolean isComplete() {
+        return missing == 0 && stale == 0 && extra == 0;
+    }
+
+    public int getTranslated() {
+        return keys - missing;
+    }
+
+    /**
+     * @return the percentage of translated keys
+     */
+    public double getCoverage() {
+        return keys == 0 ? 100 : getTranslated() * 100.0 / keys;
+    }
+
+    public Path getBundle() {
+        return bundle;
+    }
+
+    public void setBundle(Path bundle) {
+        this.bundle = bundle;
+    }
+
+    public String getLang() {
+        return lang;
+    }
+
+    public void setLang(String lang) {
+        this.lang = lang;
+    }
+
+    public int getKeys() {
+        return keys;
+    }
+
+    public void setKeys(int keys) {
+        this.keys = keys;
+    }
+
+    public int getMissing() {
+        return missing;
+    }
+
+    public void setMissing(int missing) {
+        this.missing = missing;
+    }
+
+    public int getStale() {
+        return stale;
+    }
+
+    public void setStale(int stale) {
+        this.stale = stale;
+    }
+
+    public int getIdentical() {
+        return identical;
+    }
+
+    public void setIdentical(int identical) {
+        this.identical = identical;
+    }
+
+    public int getExtra() {
+        return extra;
+    }
+
+    public void setExtra(int extra) {
+        this.extra = extra;
+    }
+
+    public List<String> getMissingKeys() {
+        return missingKeys;
+    }
+
+    public void setMissingKeys(List<String> missingKeys) {
+        this.missingKeys = missingKeys;
+    }
+
+    public List<String> getStaleKeys() {
+        return staleKeys;
+    }
+
+    public void setStaleKeys(List<String> staleKeys) {
+        this.staleKeys = staleKeys;
+    }
+
+    public List<String> getIdenticalKeys() {
+        return identicalKeys;
+    }
+
+    public void setIdenticalKeys(List<String> identicalKeys) {
+        this.identicalKeys = identicalKeys;
+    }
+
+    public List<String> getExtraKeys() {
+        return extraKeys;
+    }
+
+    public void setExtraKeys(List<String> extraKeys) {
+        this.extraKeys = extraKeys;
+    }
+
+}
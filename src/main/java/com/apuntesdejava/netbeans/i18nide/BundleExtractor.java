@@ -0,0 +1,289 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Extracts the {@code Bundle.properties} (and the localized bundles of the
+ * configured languages) of every JAR into its output directory, one task
+ * per JAR. A JAR nested in an NBM is read inside it, see
+ * {@link Archives}.
+ */
+public class BundleExtractor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BundleExtractor.class);
+
+    private static final String BUNDLE_NAME = "Bundle.properties";
+
+    private final List<String> bundlesL10n;
+    private final List<byte[]> bundlesL10nBytes;
+    private final Concurrency concurrency;
+    private final ExtractionCache cache;
+    private final RunMetrics metrics;
+
+    public BundleExtractor(String bundleL10n, int threads) {
+        this(StringUtils.isNotBlank(bundleL10n) ? Collections.singletonList(bundleL10n) : Collections.emptyList(), new Concurrency(threads), new RunMetrics("extract"));
+    }
+
+    /**
+     * @param bundlesL10n names of the localized bundles to extract, one per
+     * language, for example {@code Bundle_es.properties}
+     */
+    public BundleExtractor(List<String> bundlesL10n, Concurrency concurrency, RunMetrics metrics) {
+        this(bundlesL10n, concurrency, null, metrics);
+    }
+
+    /**
+     * @param cache the bundles already extracted, or {@code null} to read
+     * every JAR
+     */
+    public BundleExtractor(List<String> bundlesL10n, Concurrency concurrency, ExtractionCache cache, RunMetrics metrics) {
+        this.metrics = metrics;
+        this.bundlesL10n = bundlesL10n;
+        this.bundlesL10nBytes = bundlesL10n.stream().map((b) -> b.getBytes(StandardCharsets.UTF_8)).collect(Collectors.toList());
+        this.concurrency = concurrency;
+        this.cache = cache;
+    }
+
+    /**
+     * Extracts the bundles of every entry and fills its bundle output paths.
+     *
+     * @return the JARs that could not be extracted, with the cause, sorted by
+     * path
+     */
+    public Map<Path, Throwable> extract(List<EntryLocalization> entries) {
+        Map<Path, Throwable> errors = new TreeMap<>();
+        ExecutorService executor = concurrency.newExecutor();
+        try {
+            List<Future<List<Path>>> futures = new ArrayList<>(entries.size());
+            entries.forEach((entry) -> futures.add(executor.submit(() -> extract(entry))));
+            for (int i = 0; i < entries.size(); i++) {
+                EntryLocalization entry = entries.get(i);
+                try {
+                    entry.setBundleOutputPath(futures.get(i).get());
+                } catch (ExecutionException ex) {
+                    errors.put(entry.getSourcePath(), ex.getCause());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.error(ex.getMessage(), ex);
+        } finally {
+            executor.shutdownNow();
+        }
+        return errors;
+    }
+
+    private List<Path> extract(EntryLocalization entry) throws IOException {
+        List<Path> bundleOutputPath = cache == null ? extract(entry.getSourcePath(), entry.getOutputPath()) : extractCached(entry);
+        LOGGER.debug("{}: {} bundles", entry.getSourcePath(), bundleOutputPath.size());
+        Collections.sort(bundleOutputPath);
+        return bundleOutputPath;
+    }
+
+    private List<Path> extract(Path jar, Path outputPath) throws IOException {
+        if (Archives.isNested(jar)) {
+            return extractArchive(jar, outputPath);
+        }
+        try {
+            return extractMapped(jar, outputPath);
+        } catch (ZipException ex) {
+            LOGGER.debug("{}: {}", jar, ex.getMessage());
+            return extractArchive(jar, outputPath);
+        }
+    }
+
+    /**
+     * Extracts the JAR into the cache, unless it is there already, and links
+     * its bundles into the output directory.
+     */
+    private List<Path> extractCached(EntryLocalization entry) throws IOException {
+        String key = cache.key(entry.getSourcePath(), entry.getFingerprint());
+        Path cached = cache.get(key);
+        if (cached == null) {
+            metrics.increment(RunMetrics.Counter.CACHE_MISSES);
+            Path staging = cache.newStaging();
+            try {
+                extract(entry.getSourcePath(), staging);
+                cached = cache.put(key, staging);
+            } finally {
+                ExtractionCache.delete(staging);
+            }
+        } else {
+            metrics.increment(RunMetrics.Counter.CACHE_HITS);
+        }
+        try {
+            return link(cached, entry.getOutputPath());
+        } catch (NoSuchFileException ex) {
+            LOGGER.debug("{}: evicted while linking {}", entry.getSourcePath(), ex.getMessage());
+            return extract(entry.getSourcePath(), entry.getOutputPath());
+        }
+    }
+
+    /**
+     * The {@code Bundle.properties} are hard links to the cache when the file
+     * system allows it; the localized bundles are copied, since they are
+     * edited by the translators.
+     */
+    private List<Path> link(Path cached, Path outputPath) throws IOException {
+        List<Path> bundleOutputPath = new ArrayList<>();
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(cached)) {
+            files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            Path bundlePath = Paths.get(outputPath.toString(), cached.relativize(file).toString());
+            boolean localized = isLocalized(file.getFileName().toString());
+            if (write(bundlePath, localized, bundleOutputPath)) {
+                if (localized) {
+                    Files.copy(file, bundlePath);
+                } else {
+                    try {
+                        Files.createLink(bundlePath, file);
+                    } catch (NoSuchFileException ex) {
+                        throw ex;
+                    } catch (IOException | UnsupportedOperationException ex) {
+                        Files.copy(file, bundlePath);
+                    }
+                }
+                metrics.increment(RunMetrics.Counter.BUNDLES_EXTRACTED);
+            }
+        }
+        return bundleOutputPath;
+    }
+
+    /**
+     * Finds the bundles in the mapped central directory and reads them
+     * straight from the archive, without building a {@link JarFile}.
+     */
+    private List<Path> extractMapped(Path jar, Path outputPath) throws IOException {
+        List<Path> bundleOutputPath = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(jar, StandardOpenOption.READ)) {
+            ZipCentralDirectory directory = ZipCentralDirectory.map(channel);
+            metrics.increment(RunMetrics.Counter.JARS_OPENED);
+            metrics.add(RunMetrics.Counter.BYTES_READ, directory.end());
+            for (int pos = directory.first(); pos < directory.end(); pos = directory.next(pos)) {
+                metrics.increment(RunMetrics.Counter.ENTRIES_SCANNED);
+                boolean localized = isLocalized(directory, pos);
+                if (!localized && !directory.nameEndsWith(pos, NetbeansScanner.BUNDLE_BYTES)) {
+                    continue;
+                }
+                Path bundlePath = Archives.resolve(outputPath, directory.name(pos));
+                if (write(bundlePath, localized, bundleOutputPath)) {
+                    try (InputStream is = directory.open(channel, pos)) {
+                        copy(is, bundlePath);
+                    }
+                    metrics.add(RunMetrics.Counter.BYTES_READ, directory.compressedSize(pos));
+                }
+            }
+        }
+        return bundleOutputPath;
+    }
+
+    /**
+     * Reads the bundles through an {@link Archive}, which opens a nested JAR
+     * or a JAR whose central directory could not be mapped.
+     */
+    private List<Path> extractArchive(Path jar, Path outputPath) throws IOException {
+        List<Path> bundleOutputPath = new ArrayList<>();
+        try (Archive archive = Archives.open(jar)) {
+            metrics.increment(RunMetrics.Counter.JARS_OPENED);
+            archive.forEach((e) -> {
+                metrics.increment(RunMetrics.Counter.ENTRIES_SCANNED);
+                if (e.isDirectory()) {
+                    return true;
+                }
+                boolean localized = isLocalized(e.getName());
+                if (!localized && !StringUtils.endsWith(e.getName(), BUNDLE_NAME)) {
+                    return true;
+                }
+                Path bundlePath = Archives.resolve(outputPath, e.getName());
+                if (write(bundlePath, localized, bundleOutputPath)) {
+                    try (InputStream is = e.open()) {
+                        copy(is, bundlePath);
+                    }
+                    metrics.add(RunMetrics.Counter.BYTES_READ, Math.max(e.getCompressedSize(), 0));
+                }
+                return true;
+            });
+        }
+        return bundleOutputPath;
+    }
+
+    private boolean isLocalized(ZipCentralDirectory directory, int pos) {
+        for (byte[] suffix : bundlesL10nBytes) {
+            if (directory.nameEndsWith(pos, suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isLocalized(String name) {
+        return bundlesL10n.stream().anyMatch((b) -> StringUtils.endsWith(name, b));
+    }
+
+    /**
+     * Registers the bundle and tells if it has to be written. Localized
+     * bundles are not registered, and never overwrite the work of the
+     * translators. A {@code Bundle.properties} may be a link into the
+     * extraction cache, so it is replaced instead of written over.
+     */
+    private static boolean write(Path bundlePath, boolean localized, List<Path> bundleOutputPath) throws IOException {
+        if (!localized) {
+            bundleOutputPath.add(bundlePath);
+            Files.deleteIfExists(bundlePath);
+        } else if (Files.exists(bundlePath)) {
+            return false;
+        }
+        Files.createDirectories(bundlePath.getParent());
+        return true;
+    }
+
+    private void copy(InputStream is, Path bundlePath) throws IOException {
+        try (OutputStream os = Files.newOutputStream(bundlePath)) {
+            metrics.add(RunMetrics.Counter.BYTES_WRITTEN, Streams.copy(is, os));
+        }
+        metrics.increment(RunMetrics.Counter.BUNDLES_EXTRACTED);
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches the output directory of every entry and reports the entries whose
+ * localized bundles were saved. Saves are reported once the directory has
+ * been quiet for {@link #DEBOUNCE_MILLIS}, so an editor that writes a file in
+ * several steps, or a translator saving several files, causes a single
+ * batch.
+ */
+public class BundleWatcher implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BundleWatcher.class);
+
+    static final long DEBOUNCE_MILLIS = 300;
+
+    private final WatchService watcher;
+    private final Set<String> bundlesL10n;
+    private final Map<WatchKey, Watched> keys = new HashMap<>();
+
+    public BundleWatcher(List<EntryLocalization> entries, List<String> bundlesL10n) throws IOException {
+        this.watcher = FileSystems.getDefault().newWatchService();
+        this.bundlesL10n = new HashSet<>(bundlesL10n);
+        for (EntryLocalization entry : entries) {
+            if (Files.isDirectory(entry.getOutputPath())) {
+                register(entry.getOutputPath(), entry);
+            }
+        }
+    }
+
+    private void register(Path root, EntryLocalization entry) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                keys.put(dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY), new Watched(dir, entry));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    public int getDirectories() {
+        return keys.size();
+    }
+
+    /**
+     * Hands every batch of changed entries to {@code listener}, on the
+     * calling thread, until the watcher is closed.
+     */
+    public void watch(Consumer<List<EntryLocalization>> listener) throws InterruptedException {
+        Map<Path, EntryLocalization> pending = new LinkedHashMap<>();
+        try {
+            while (true) {
+                WatchKey key = pending.isEmpty() ? watcher.take() : watcher.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    listener.accept(new ArrayList<>(pending.values()));
+                    pending.clear();
+                    continue;
+                }
+                Watched watched = keys.get(key);
+                if (watched != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (changed(watched, event)) {
+                            pending.put(watched.entry.getSourcePath(), watched.entry);
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    keys.remove(key);
+                }
+            }
+        } catch (ClosedWatchServiceException ex) {
+            LOGGER.debug(ex.getMessage(), ex);
+        }
+    }
+
+    private boolean changed(Watched watched, WatchEvent<?> event) {
+        if (event.kind() == OVERFLOW) {
+            return true;
+        }
+        Path child = watched.dir.resolve((Path) event.context());
+        if (event.kind() == ENTRY_CREATE && Files.isDirectory(child)) {
+            // the bundles may have been written before the directory was registered
+            try {
+                register(child, watched.entry);
+            } catch (IOException ex) {
+                LOGGER.error(ex.getMessage(), ex);
+            }
+            return true;
+        }
+        if (bundlesL10n.contains(child.getFileName().toString())) {
+            LOGGER.debug("Modificado {}", child);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+    }
+
+    private static class Watched {
+
+        private final Path dir;
+        private final EntryLocalization entry;
+
+        Watched(Path dir, EntryLocalization entry) {
+            this.dir = dir;
+            this.entry = entry;
+        }
+    }
+
+}
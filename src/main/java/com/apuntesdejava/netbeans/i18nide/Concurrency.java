@@ -0,0 +1,173 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * How the per-JAR work runs: on a fixed pool of platform threads, or on one
+ * virtual thread per task when the runtime has them (Java 21 and later). The
+ * I/O limit caps the tasks running at once with a {@link Semaphore}, so a
+ * network file system is not flooded with requests.
+ */
+public class Concurrency {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Concurrency.class);
+
+    // looked up by reflection, so the tool still runs on Java 17
+    private static final Method NEW_VIRTUAL_EXECUTOR = virtualExecutorFactory();
+    private static final AtomicBoolean WARNED = new AtomicBoolean();
+
+    private final boolean virtualThreads;
+    private final int threads;
+    private final int ioLimit;
+
+    public Concurrency(int threads) {
+        this(false, threads, 0);
+    }
+
+    /**
+     * @param threads size of the platform thread pool
+     * @param ioLimit maximum of tasks running at once, or 0 for no limit
+     * other than the pool size
+     */
+    public Concurrency(boolean virtualThreads, int threads, int ioLimit) {
+        if (virtualThreads && NEW_VIRTUAL_EXECUTOR == null && WARNED.compareAndSet(false, true)) {
+            LOGGER.warn("Hilos virtuales no disponibles en Java {}, se usan {} hilos", Runtime.version().feature(), threads);
+        }
+        this.virtualThreads = virtualThreads && NEW_VIRTUAL_EXECUTOR != null;
+        this.threads = threads;
+        this.ioLimit = ioLimit;
+    }
+
+    public static Concurrency of(Configuration configuration) {
+        return new Concurrency(configuration.isVirtualThreads(), configuration.getThreads(), configuration.getIoLimit());
+    }
+
+    public ExecutorService newExecutor() {
+        ExecutorService executor = virtualThreads ? newVirtualExecutor() : Executors.newFixedThreadPool(threads);
+        return ioLimit > 0 ? new LimitedExecutor(executor, ioLimit) : executor;
+    }
+
+    private static ExecutorService newVirtualExecutor() {
+        try {
+            return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+        } catch (IllegalAccessException | InvocationTargetException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static Method virtualExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @return false when virtual threads were asked for but the runtime does
+     * not have them
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getIoLimit() {
+        return ioLimit;
+    }
+
+    @Override
+    public String toString() {
+        return (virtualThreads ? "virtual" : "platform:" + threads) + (ioLimit > 0 ? " limite:" + ioLimit : "");
+    }
+
+    /**
+     * Runs every task on the delegate once a permit is available.
+     */
+    private static class LimitedExecutor extends AbstractExecutorService {
+
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        LimitedExecutor(ExecutorService delegate, int limit) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(limit);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            delegate.execute(() -> {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    if (command instanceof Future) {
+                        ((Future<?>) command).cancel(false);
+                    }
+                    return;
+                }
+                try {
+                    command.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+
+}
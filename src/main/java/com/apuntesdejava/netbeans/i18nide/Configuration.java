@@ -1,23 +1,75 @@
 package com.apuntesdejava.netbeans.i18nide;
 
+import org.apache.commons.lang3.StringUtils;
+
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Configuration {
+    private static final String DEFAULT_MEMORY_DIR = "translation-memory";
+    private static final long DEFAULT_CACHE_SIZE = 1024;
+
     private final Path netbeansDir;
     private final Path outputDir;
     private final String lang;
+    private final int threads;
+    private final boolean fingerprintHash;
+    private final boolean incremental;
+    private final Path memoryDir;
+    private final boolean virtualThreads;
+    private final int ioLimit;
+    private final Path cacheDir;
+    private final long cacheSize;
 
     private Configuration(final String netbeansDir, final String outputDir, final String lang) {
+        this(netbeansDir, outputDir, lang, defaultThreads(), false, false, DEFAULT_MEMORY_DIR, false, 0, null, DEFAULT_CACHE_SIZE);
+    }
+
+    private Configuration(final String netbeansDir, final String outputDir, final String lang, final int threads, final boolean fingerprintHash, final boolean incremental, final String memoryDir, final boolean virtualThreads, final int ioLimit, final String cacheDir, final long cacheSize) {
         this.lang = lang;
         this.netbeansDir = Paths.get(netbeansDir);
         this.outputDir = Paths.get(outputDir);
+        this.threads = threads;
+        this.fingerprintHash = fingerprintHash;
+        this.incremental = incremental;
+        this.memoryDir = Paths.get(memoryDir);
+        this.virtualThreads = virtualThreads;
+        this.ioLimit = ioLimit;
+        this.cacheDir = cacheDir == null ? null : Paths.get(cacheDir);
+        this.cacheSize = cacheSize;
     }
 
     public static class ConfigurationBuilder{
         private String netbeansDir;
         private String outputDir;
         private String lang;
+        private int threads = defaultThreads();
+        private boolean fingerprintHash;
+        private boolean incremental;
+        private String memoryDir = DEFAULT_MEMORY_DIR;
+        private boolean virtualThreads;
+        private int ioLimit;
+        private String cacheDir;
+        private long cacheSize = DEFAULT_CACHE_SIZE;
+
+        public ConfigurationBuilder() {
+        }
+
+        public ConfigurationBuilder(final Configuration configuration) {
+            this.netbeansDir = configuration.getNetbeansDir().toString();
+            this.outputDir = configuration.getOutputDir().toString();
+            this.lang = configuration.getLang();
+            this.threads = configuration.getThreads();
+            this.fingerprintHash = configuration.isFingerprintHash();
+            this.incremental = configuration.isIncremental();
+            this.memoryDir = configuration.getMemoryDir().toString();
+            this.virtualThreads = configuration.isVirtualThreads();
+            this.ioLimit = configuration.getIoLimit();
+            this.cacheDir = configuration.getCacheDir() == null ? null : configuration.getCacheDir().toString();
+            this.cacheSize = configuration.getCacheSize();
+        }
 
         public ConfigurationBuilder netbeansDir(final String netbeansDir) {
             this.netbeansDir = netbeansDir;
@@ -34,16 +86,56 @@ public class Configuration {
             return this;
         }
 
+        public ConfigurationBuilder threads(final int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        public ConfigurationBuilder fingerprintHash(final boolean fingerprintHash) {
+            this.fingerprintHash = fingerprintHash;
+            return this;
+        }
+
+        public ConfigurationBuilder incremental(final boolean incremental) {
+            this.incremental = incremental;
+            return this;
+        }
+
+        public ConfigurationBuilder memoryDir(final String memoryDir) {
+            this.memoryDir = memoryDir;
+            return this;
+        }
+
+        public ConfigurationBuilder virtualThreads(final boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        public ConfigurationBuilder ioLimit(final int ioLimit) {
+            this.ioLimit = ioLimit;
+            return this;
+        }
+
+        public ConfigurationBuilder cacheDir(final String cacheDir) {
+            this.cacheDir = cacheDir;
+            return this;
+        }
+
+        public ConfigurationBuilder cacheSize(final long cacheSize) {
+            this.cacheSize = cacheSize;
+            return this;
+        }
+
         public Configuration build() throws NoSuchFieldException {
             if(isValid()){
-                return new Configuration(netbeansDir,outputDir,lang);
+                return new Configuration(netbeansDir,outputDir,lang,threads,fingerprintHash,incremental,memoryDir,virtualThreads,ioLimit,cacheDir,cacheSize);
             }else {
                 throw new NoSuchFieldException("Missing fields");
             }
         }
 
         private boolean isValid() {
-            return false;
+            return StringUtils.isNoneBlank(netbeansDir, outputDir, memoryDir) && threads > 0 && ioLimit >= 0 && cacheSize > 0;
         }
     }
 
@@ -52,6 +144,10 @@ public class Configuration {
         return new Configuration("C:\\Program Files\\NetBeans-11.3", "es", "output");
     }
 
+    private static int defaultThreads() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
     public Path getNetbeansDir() {
         return this.netbeansDir;
     }
@@ -63,4 +159,69 @@ public class Configuration {
     public String getLang() {
         return this.lang;
     }
+
+    /**
+     * The languages given in {@code --lang}, separated by commas.
+     */
+    public List<String> getLangs() {
+        List<String> langs = new ArrayList<>();
+        for (String l : StringUtils.split(StringUtils.defaultString(lang), ',')) {
+            if (StringUtils.isNotBlank(l)) {
+                langs.add(l.trim());
+            }
+        }
+        return langs;
+    }
+
+    public int getThreads() {
+        return this.threads;
+    }
+
+    public boolean isFingerprintHash() {
+        return this.fingerprintHash;
+    }
+
+    public boolean isIncremental() {
+        return this.incremental;
+    }
+
+    /**
+     * Directory of the translation memory, one file per language. It can be
+     * shared by the working directories of several NetBeans versions.
+     */
+    public Path getMemoryDir() {
+        return this.memoryDir;
+    }
+
+    /**
+     * Runs the per-JAR work on virtual threads, when the runtime has them.
+     */
+    public boolean isVirtualThreads() {
+        return this.virtualThreads;
+    }
+
+    /**
+     * Maximum of JARs read or written at once, or 0 for no limit other than
+     * the number of threads.
+     */
+    public int getIoLimit() {
+        return this.ioLimit;
+    }
+
+    /**
+     * Directory of the extraction cache, or {@code null} to extract every
+     * JAR. It can be shared by the working directories of several NetBeans
+     * versions.
+     */
+    public Path getCacheDir() {
+        return this.cacheDir;
+    }
+
+    /**
+     * Size of the extraction cache, in megabytes, above which the least
+     * recently used JARs are evicted.
+     */
+    public long getCacheSize() {
+        return this.cacheSize;
+    }
 }
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Answers requests on a Unix domain socket, so a long running process keeps
+ * the structure and the parsed bundles warm between calls. A request is the
+ * command line arguments, one per line, ended by an empty line; the answer is
+ * text, and the connection is closed after it.
+ * <p>
+ * Every connection is read and answered in its own thread, with a deadline,
+ * so a client that stalls only holds its own connection. The handler runs
+ * one request at a time, and its answer is written once the next request
+ * may start.
+ * <p>
+ * A request that stops the daemon closes the socket before the next request
+ * may start: the requests accepted before it are answered with an error, and
+ * {@link #close()} waits for the answers still being written.
+ */
+public class Daemon implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Daemon.class);
+
+    public static final String SOCKET_FILENAME = "i18n.sock";
+
+    // a client sends its request at once; one that takes longer is stalled
+    private static final long REQUEST_TIMEOUT_SECONDS = 10;
+    private static final long ANSWER_TIMEOUT_SECONDS = 60;
+
+    private final Path socket;
+    private final ServerSocketChannel server;
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService deadlines = Executors.newSingleThreadScheduledExecutor();
+    private final Object handling = new Object();
+
+    @FunctionalInterface
+    public interface Handler {
+
+        /**
+         * @return false to stop the daemon after answering
+         */
+        boolean handle(List<String> args, PrintWriter out) throws IOException;
+    }
+
+    private Daemon(Path socket, ServerSocketChannel server) {
+        this.socket = socket;
+        this.server = server;
+    }
+
+    /**
+     * Listens on the socket. A socket file left by a daemon that died is
+     * replaced; one that still answers is not.
+     */
+    public static Daemon bind(Path socket) throws IOException {
+        if (Files.exists(socket)) {
+            if (answers(socket)) {
+                throw new IOException("Ya hay un daemon escuchando en " + socket);
+            }
+            Files.delete(socket);
+        }
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        Daemon daemon = new Daemon(socket, server);
+        // Ctrl+C does not close the daemon
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::deleteSocket));
+        return daemon;
+    }
+
+    private static boolean answers(Path socket) {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            return true;
+        } catch (IOException ex) {
+            LOGGER.debug("{}: {}", socket, ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Accepts connections until a request makes the handler return false.
+     */
+    public void serve(Handler handler) {
+        while (server.isOpen()) {
+            try {
+                SocketChannel channel = server.accept();
+                connections.execute(() -> answer(channel, handler));
+            } catch (IOException ex) {
+                if (!server.isOpen()) {
+                    return;
+                }
+                LOGGER.error(ex.getMessage(), ex);
+            }
+        }
+    }
+
+    private void answer(SocketChannel channel, Handler handler) {
+        try (channel) {
+            List<String> args;
+            ScheduledFuture<?> deadline = deadline(channel, REQUEST_TIMEOUT_SECONDS);
+            try {
+                args = readRequest(channel);
+            } finally {
+                deadline.cancel(false);
+            }
+            if (args.isEmpty()) {
+                // a daemon checking if this one is alive
+                return;
+            }
+            LOGGER.debug("Peticion {}", args);
+            StringWriter answer = new StringWriter();
+            synchronized (handling) {
+                if (!server.isOpen()) {
+                    new PrintWriter(answer).println("ERROR El daemon se esta deteniendo");
+                } else if (!handle(handler, args, answer)) {
+                    server.close();
+                }
+            }
+            deadline = deadline(channel, ANSWER_TIMEOUT_SECONDS);
+            try {
+                Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8);
+                writer.write(answer.toString());
+                writer.flush();
+            } finally {
+                deadline.cancel(false);
+            }
+        } catch (IOException ex) {
+            // closed by its deadline, or by the daemon stopping
+            LOGGER.debug("{}: {}", socket, ex.toString());
+        }
+    }
+
+    private static boolean handle(Handler handler, List<String> args, StringWriter answer) {
+        PrintWriter out = new PrintWriter(answer);
+        try {
+            return handler.handle(args, out);
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            out.println("ERROR " + ex.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * Closes the connection when it is not done in time, which wakes up the
+     * thread blocked on it.
+     */
+    private ScheduledFuture<?> deadline(SocketChannel channel, long seconds) {
+        return deadlines.schedule(() -> {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                LOGGER.debug("{}: {}", socket, ex.getMessage());
+            }
+        }, seconds, TimeUnit.SECONDS);
+    }
+
+    private static List<String> readRequest(SocketChannel channel) throws IOException {
+        // not closed: closing it would close the channel before the answer
+        BufferedReader reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+        List<String> args = new ArrayList<>();
+        for (String line = reader.readLine(); line != null && !line.isEmpty(); line = reader.readLine()) {
+            args.add(line);
+        }
+        return args;
+    }
+
+    /**
+     * Sends a request to the daemon and copies its answer to {@code out}.
+     *
+     * @return false when no daemon listens on the socket, or it stopped
+     * before accepting the connection
+     */
+    public static boolean send(Path socket, List<String> args, PrintStream out) throws IOException {
+        if (!Files.exists(socket)) {
+            return false;
+        }
+        boolean answered = false;
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            PrintWriter writer = new PrintWriter(Channels.newWriter(channel, StandardCharsets.UTF_8));
+            args.forEach(writer::println);
+            writer.println();
+            writer.flush();
+            BufferedReader reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                out.println(line);
+                answered = true;
+            }
+            return true;
+        } catch (SocketException ex) {
+            // refused, the socket file deleted, or reset by a daemon stopping
+            if (answered) {
+                throw ex;
+            }
+            LOGGER.debug("{}: {}", socket, ex.getMessage());
+            return false;
+        }
+    }
+
+    private void deleteSocket() {
+        try {
+            Files.deleteIfExists(socket);
+        } catch (IOException ex) {
+            LOGGER.debug("{}: {}", socket, ex.getMessage());
+        }
+    }
+
+    /**
+     * Stops accepting, and waits for the connections already accepted to be
+     * answered; their deadlines bound the wait.
+     */
+    @Override
+    public void close() throws IOException {
+        server.close();
+        connections.shutdown();
+        try {
+            if (!connections.awaitTermination(REQUEST_TIMEOUT_SECONDS + ANSWER_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                connections.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            connections.shutdownNow();
+            Thread.currentThread().interrupt();
+        } finally {
+            deadlines.shutdownNow();
+            deleteSocket();
+        }
+    }
+
+}
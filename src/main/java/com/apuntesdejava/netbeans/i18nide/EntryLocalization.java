@@ -28,6 +28,7 @@ public class EntryLocalization {
     Path sourcePath;
     Path outputPath;
     private List<Path> bundleOutputPath;
+    private JarFingerprint fingerprint;
 
     public EntryLocalization() {
     }
@@ -63,6 +64,14 @@ public class EntryLocalization {
         this.bundleOutputPath.add(item);
     }
 
+    public JarFingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(JarFingerprint fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
     public EntryLocalization(Path sourcePath, Path outputPath) {
         this.sourcePath = sourcePath;
         this.outputPath = outputPath;
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+/**
+ * Bundles already extracted, shared by the working directories of several
+ * NetBeans installs. Every JAR is keyed by the SHA-256 of its central
+ * directory and of the languages extracted, so the same module in two
+ * installs is extracted once.
+ * <p>
+ * A JAR is extracted into a staging directory and published with an atomic
+ * rename, and evicted by renaming it back out of the way before deleting it,
+ * so a reader, in this process or another, sees either all the bundles of a
+ * JAR or none. The last modified time of each directory records its last
+ * use, for the LRU eviction.
+ */
+public class ExtractionCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExtractionCache.class);
+
+    private static final String STAGING_DIR = "tmp";
+    // staging directories older than this were left by a process that died
+    private static final long STALE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final Path dir;
+    private final long maxBytes;
+    private final List<String> bundlesL10n;
+
+    public ExtractionCache(Path dir, long maxBytes, List<String> bundlesL10n) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.bundlesL10n = bundlesL10n;
+    }
+
+    public String key(Path jar, JarFingerprint fingerprint) throws IOException {
+        String directoryHash = fingerprint != null && fingerprint.getDirectoryHash() != null
+                ? fingerprint.getDirectoryHash() : JarFingerprint.directoryHash(jar);
+        MessageDigest digest = Digests.sha256();
+        digest.update(directoryHash.getBytes(StandardCharsets.US_ASCII));
+        for (String bundleL10n : bundlesL10n) {
+            digest.update((byte) 0);
+            digest.update(bundleL10n.getBytes(StandardCharsets.UTF_8));
+        }
+        return Digests.hex(digest.digest());
+    }
+
+    private Path entry(String key) {
+        return dir.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    /**
+     * @return the directory with the bundles of the JAR, or {@code null} when
+     * it is not cached
+     */
+    public Path get(String key) {
+        Path entry = entry(key);
+        if (!Files.isDirectory(entry)) {
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ex) {
+            // evicted meanwhile
+            LOGGER.debug("{}: {}", entry, ex.getMessage());
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * @return an empty directory, where the bundles of a JAR are extracted
+     * before being published with {@link #put(String, Path)}
+     */
+    public Path newStaging() throws IOException {
+        Path staging = dir.resolve(STAGING_DIR);
+        Files.createDirectories(staging);
+        return Files.createTempDirectory(staging, "extract");
+    }
+
+    /**
+     * Publishes the bundles extracted in the staging directory. When another
+     * process published the same JAR first, its bundles are kept.
+     *
+     * @return the directory with the bundles of the JAR
+     */
+    public Path put(String key, Path staging) throws IOException {
+        Path entry = entry(key);
+        Files.createDirectories(entry.getParent());
+        try {
+            Files.move(staging, entry, ATOMIC_MOVE);
+        } catch (IOException ex) {
+            if (!Files.isDirectory(entry)) {
+                throw ex;
+            }
+            LOGGER.debug("{}: {}", entry, ex.getMessage());
+            delete(staging);
+        }
+        return entry;
+    }
+
+    /**
+     * Deletes the least recently used JARs until the cache fits in its size,
+     * and the staging directories left by processes that died.
+     *
+     * @return the JARs evicted
+     */
+    public int evict() throws IOException {
+        Path stagingDir = dir.resolve(STAGING_DIR);
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        List<Cached> entries = new ArrayList<>();
+        long total = 0;
+        try (Stream<Path> prefixes = Files.list(dir)) {
+            for (Path prefix : prefixes.filter((p) -> Files.isDirectory(p) && !p.equals(stagingDir)).collect(Collectors.toList())) {
+                try (Stream<Path> keys = Files.list(prefix)) {
+                    for (Path entry : keys.collect(Collectors.toList())) {
+                        Cached cached = new Cached(entry, Files.getLastModifiedTime(entry).toMillis(), size(entry));
+                        entries.add(cached);
+                        total += cached.size;
+                    }
+                }
+            }
+        }
+        entries.sort(Comparator.comparingLong((Cached cached) -> cached.lastUsed));
+        int evicted = 0;
+        for (Cached cached : entries) {
+            if (total <= maxBytes) {
+                break;
+            }
+            Path trash = newStaging();
+            Files.delete(trash);
+            try {
+                Files.move(cached.entry, trash, ATOMIC_MOVE);
+            } catch (IOException ex) {
+                // evicted by another process
+                LOGGER.debug("{}: {}", cached.entry, ex.getMessage());
+                continue;
+            }
+            delete(trash);
+            total -= cached.size;
+            evicted++;
+        }
+        if (Files.isDirectory(stagingDir)) {
+            long stale = System.currentTimeMillis() - STALE_MILLIS;
+            try (Stream<Path> stagings = Files.list(stagingDir)) {
+                for (Path staging : stagings.collect(Collectors.toList())) {
+                    if (Files.getLastModifiedTime(staging).toMillis() < stale) {
+                        delete(staging);
+                    }
+                }
+            }
+        }
+        LOGGER.info("Cache {}: {} JARs, {} KB, eliminados:{}", dir, entries.size() - evicted, total / 1024, evicted);
+        return evicted;
+    }
+
+    private static long size(Path entry) throws IOException {
+        try (Stream<Path> walk = Files.walk(entry)) {
+            long size = 0;
+            for (Path f : walk.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                size += Files.size(f);
+            }
+            return size;
+        }
+    }
+
+    static void delete(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path f : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(f);
+            }
+        }
+    }
+
+    private static class Cached {
+
+        private final Path entry;
+        private final long lastUsed;
+        private final long size;
+
+        Cached(Path entry, long lastUsed, long size) {
+            this.entry = entry;
+            this.lastUsed = lastUsed;
+            this.size = size;
+        }
+    }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A JAR or NBM on disk. The entries are found in the mapped central directory
+ * and read through positional reads; an archive the central directory can
+ * not be read from is opened as a {@link JarFile}.
+ * <p>
+ * A JAR nested in an NBM is read through its own central directory as well:
+ * in place when it is stored without compression, otherwise from a temporary
+ * copy that is deleted on close. Its local headers alone do not tell the
+ * size of entries written with a data descriptor.
+ */
+class JarArchive implements Archive {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JarArchive.class);
+
+    private final FileChannel channel;
+    private final ZipCentralDirectory directory;
+    private final JarFile jarFile;
+    private Path temp;
+
+    JarArchive(Path file) throws IOException {
+        FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ);
+        ZipCentralDirectory centralDirectory;
+        try {
+            centralDirectory = ZipCentralDirectory.map(fileChannel);
+        } catch (ZipException ex) {
+            LOGGER.debug("{}: {}", file, ex.getMessage());
+            fileChannel.close();
+            this.channel = null;
+            this.directory = null;
+            this.jarFile = new JarFile(file.toFile(), false);
+            return;
+        } catch (IOException | RuntimeException ex) {
+            fileChannel.close();
+            throw ex;
+        }
+        this.channel = fileChannel;
+        this.directory = centralDirectory;
+        this.jarFile = null;
+    }
+
+    private JarArchive(Path file, long base, long size) throws IOException {
+        FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            this.directory = ZipCentralDirectory.map(fileChannel, base, size);
+        } catch (IOException | RuntimeException ex) {
+            fileChannel.close();
+            throw ex;
+        }
+        this.channel = fileChannel;
+        this.jarFile = null;
+    }
+
+    /**
+     * Opens the JAR named {@code name} inside the archive {@code outer}.
+     *
+     * @return {@code null} when the archive has no such entry
+     */
+    static JarArchive nested(Path outer, String name) throws IOException {
+        try (JarArchive archive = new JarArchive(outer)) {
+            if (archive.directory != null) {
+                int pos = archive.directory.find(name);
+                if (pos < 0) {
+                    return null;
+                }
+                if (archive.directory.method(pos) == ZipCentralDirectory.STORED) {
+                    try {
+                        return new JarArchive(outer, archive.directory.dataOffset(archive.channel, pos), archive.directory.size(pos));
+                    } catch (ZipException ex) {
+                        LOGGER.debug("{}!/{}: {}", outer, name, ex.getMessage());
+                    }
+                }
+            }
+            InputStream in = archive.open(name);
+            return in == null ? null : copy(in);
+        }
+    }
+
+    private static JarArchive copy(InputStream in) throws IOException {
+        Path file = Files.createTempFile("i18n-", ".jar");
+        try {
+            try (InputStream is = in) {
+                Files.copy(is, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            JarArchive archive = new JarArchive(file);
+            archive.temp = file;
+            return archive;
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(file);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void forEach(Visitor visitor) throws IOException {
+        if (directory == null) {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                if (!visitor.visit(new JarFileEntry(entries.nextElement()))) {
+                    return;
+                }
+            }
+            return;
+        }
+        for (int pos = directory.first(); pos < directory.end(); pos = directory.next(pos)) {
+            if (!visitor.visit(new MappedEntry(pos))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Opens a single entry by name, for example a nested JAR.
+     *
+     * @return {@code null} when the archive has no such entry
+     */
+    InputStream open(String name) throws IOException {
+        if (directory == null) {
+            JarEntry e = jarFile.getJarEntry(name);
+            return e == null ? null : jarFile.getInputStream(e);
+        }
+        int pos = directory.find(name);
+        return pos < 0 ? null : directory.open(channel, pos);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (jarFile != null) {
+                jarFile.close();
+            } else {
+                channel.close();
+            }
+        } finally {
+            if (temp != null) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    private class MappedEntry implements Entry {
+
+        private final int pos;
+        private String name;
+
+        MappedEntry(int pos) {
+            this.pos = pos;
+        }
+
+        @Override
+        public String getName() {
+            if (name == null) {
+                name = directory.name(pos);
+            }
+            return name;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return directory.isDirectory(pos);
+        }
+
+        @Override
+        public long getCompressedSize() {
+            return directory.compressedSize(pos);
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            return directory.open(channel, pos);
+        }
+    }
+
+    private class JarFileEntry implements Entry {
+
+        private final JarEntry entry;
+
+        JarFileEntry(JarEntry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public String getName() {
+            return entry.getName();
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return entry.isDirectory();
+        }
+
+        @Override
+        public long getCompressedSize() {
+            return entry.getCompressedSize();
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            return jarFile.getInputStream(entry);
+        }
+    }
+
+}
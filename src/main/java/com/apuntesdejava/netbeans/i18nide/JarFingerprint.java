@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Objects;
+import java.util.zip.ZipException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Identifies the version of a source JAR: size, modification time and,
+ * optionally, a SHA-256 of its central directory. A JAR nested in an NBM is
+ * identified by the NBM, and by its name in it.
+ */
+public class JarFingerprint {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JarFingerprint.class);
+
+    private long size;
+    private long lastModified;
+    private String directoryHash;
+
+    public JarFingerprint() {
+    }
+
+    public static JarFingerprint of(Path jar, boolean withHash) throws IOException {
+        Path file = Archives.isNested(jar) ? Archives.outer(jar) : jar;
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        JarFingerprint fingerprint = new JarFingerprint();
+        fingerprint.size = attrs.size();
+        fingerprint.lastModified = attrs.lastModifiedTime().toMillis();
+        if (withHash) {
+            fingerprint.directoryHash = directoryHash(jar);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Hashes the central directory. An archive whose central directory can
+     * not be read, such as a ZIP64 one, is hashed whole.
+     */
+    static String directoryHash(Path jar) throws IOException {
+        boolean nested = Archives.isNested(jar);
+        Path file = nested ? Archives.outer(jar) : jar;
+        MessageDigest digest = Digests.sha256();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ZipCentralDirectory.read(channel).digest(digest);
+        } catch (ZipException ex) {
+            LOGGER.debug("{}: {}", file, ex.getMessage());
+            digest.reset();
+            try (InputStream is = new DigestInputStream(Files.newInputStream(file), digest)) {
+                Streams.copy(is, OutputStream.nullOutputStream());
+            }
+        }
+        if (nested) {
+            // the directory of the NBM holds the CRC of the nested JAR
+            digest.update((byte) 0);
+            digest.update(Archives.entryName(jar).getBytes(StandardCharsets.UTF_8));
+        }
+        return Digests.hex(digest.digest());
+    }
+
+    /**
+     * Tells if both fingerprints belong to the same version of the JAR. When
+     * both have a central directory hash only the hash is compared, so a JAR
+     * that was only touched is not considered changed.
+     */
+    public boolean matches(JarFingerprint other) {
+        if (other == null) {
+            return false;
+        }
+        if (directoryHash != null && other.directoryHash != null) {
+            return directoryHash.equals(other.directoryHash);
+        }
+        return size == other.size && lastModified == other.lastModified;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public String getDirectoryHash() {
+        return directoryHash;
+    }
+
+    public void setDirectoryHash(String directoryHash) {
+        this.directoryHash = directoryHash;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(size, lastModified, directoryHash);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof JarFingerprint)) {
+            return false;
+        }
+        JarFingerprint other = (JarFingerprint) obj;
+        return size == other.size && lastModified == other.lastModified && Objects.equals(directoryHash, other.directoryHash);
+    }
+
+    @Override
+    public String toString() {
+        return "JarFingerprint{" + "size=" + size + ", lastModified=" + lastModified + ", directoryHash=" + directoryHash + '}';
+    }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipException;
+
+import static com.apuntesdejava.netbeans.i18nide.ZipCentralDirectory.*;
+
+/**
+ * Rebuilds a JAR adding or replacing entries. Entries that are not replaced
+ * are copied with their compressed bytes, so they are never inflated or
+ * deflated again and keep their original CRC, sizes and method. Only the
+ * added entries are deflated.
+ */
+class JarRewriter {
+
+    private static final int VERSION = 20;
+
+    private JarRewriter() {
+    }
+
+    /**
+     * Writes {@code target} with the entries of {@code source}, replacing or
+     * appending the entries in {@code additions}, keyed by entry name.
+     *
+     * @throws ZipException if the source can not be copied raw (for example,
+     * a ZIP64 archive)
+     */
+    static void rewrite(Path source, Path target, Map<String, Path> additions) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ZipCentralDirectory directory = ZipCentralDirectory.read(in);
+            ByteArrayOutputStream cen = new ByteArrayOutputStream();
+            int entries = 0;
+            for (int pos = directory.first(); pos < directory.end(); pos = directory.next(pos)) {
+                if (additions.containsKey(directory.name(pos))) {
+                    continue;
+                }
+                long offset = offset(out);
+                copyLocalEntry(in, out, directory, pos);
+                write(cen, directory.record(pos, offset));
+                entries++;
+            }
+            for (Map.Entry<String, Path> addition : additions.entrySet()) {
+                long offset = offset(out);
+                ByteBuffer header = addEntry(out, addition.getKey(), addition.getValue());
+                write(cen, centralHeader(header, offset));
+                entries++;
+            }
+            if (entries > 0xFFFF) {
+                throw new ZipException("ZIP64 no soportado");
+            }
+            long cenOffset = offset(out);
+            writeFully(out, ByteBuffer.wrap(cen.toByteArray()));
+            writeFully(out, endHeader(entries, cen.size(), cenOffset, directory.comment()));
+        }
+    }
+
+    /**
+     * The records hold offsets as unsigned ints; an archive that grows past
+     * them needs ZIP64 records, which are not written.
+     */
+    private static long offset(FileChannel out) throws IOException {
+        long offset = out.position();
+        if (offset >= ZIP64_MAGIC) {
+            throw new ZipException("ZIP64 no soportado");
+        }
+        return offset;
+    }
+
+    private static void copyLocalEntry(FileChannel in, FileChannel out, ZipCentralDirectory directory, int pos) throws IOException {
+        long loc = directory.localHeaderOffset(pos);
+        ByteBuffer header = readFully(in, loc, LOC_HEADER);
+        if (header.getInt(0) != LOC_SIG) {
+            throw new ZipException("Cabecera local invalida: " + directory.name(pos));
+        }
+        long end = loc + LOC_HEADER + Short.toUnsignedInt(header.getShort(26)) + Short.toUnsignedInt(header.getShort(28))
+                + directory.compressedSize(pos);
+        if ((directory.flags(pos) & FLAG_DATA_DESCRIPTOR) != 0) {
+            end += readFully(in, end, 4).getInt(0) == EXT_SIG ? 16 : 12;
+        }
+        transferFully(in, loc, end - loc, out);
+    }
+
+    /**
+     * Writes a deflated entry and returns its local header, with the final
+     * CRC and sizes.
+     */
+    private static ByteBuffer addEntry(FileChannel out, String name, Path content) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(LOC_HEADER + nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOC_SIG)
+                .putShort((short) VERSION)
+                .putShort((short) FLAG_UTF8)
+                .putShort((short) DEFLATED)
+                .putInt(dosTime(LocalDateTime.now()))
+                .putInt(0)
+                .putInt(0)
+                .putInt(0)
+                .putShort((short) nameBytes.length)
+                .putShort((short) 0)
+                .put(nameBytes)
+                .flip();
+        long headerOffset = out.position();
+        writeFully(out, header.duplicate());
+
+        CRC32 crc = new CRC32();
+        long size;
+        long dataStart = out.position();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try (InputStream is = new CheckedInputStream(Files.newInputStream(content), crc)) {
+            DeflaterOutputStream dos = new DeflaterOutputStream(Channels.newOutputStream(out), deflater, Streams.BUFFER_SIZE);
+            size = Streams.copy(is, dos);
+            dos.finish();
+        } finally {
+            deflater.end();
+        }
+        long compressedSize = out.position() - dataStart;
+        if (size >= 0xFFFFFFFFL || compressedSize >= 0xFFFFFFFFL) {
+            throw new ZipException("ZIP64 no soportado");
+        }
+        header.putInt(14, (int) crc.getValue())
+                .putInt(18, (int) compressedSize)
+                .putInt(22, (int) size);
+        writeFully(out, header.duplicate().limit(LOC_HEADER), headerOffset);
+        return header;
+    }
+
+    private static ByteBuffer centralHeader(ByteBuffer local, long offset) {
+        int nameLength = Short.toUnsignedInt(local.getShort(26));
+        ByteBuffer record = ByteBuffer.allocate(CEN_HEADER + nameLength).order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt(CEN_SIG)
+                .putShort((short) VERSION)
+                .putShort((short) VERSION)
+                .putShort(local.getShort(6))
+                .putShort(local.getShort(8))
+                .putInt(local.getInt(10))
+                .putInt(local.getInt(14))
+                .putInt(local.getInt(18))
+                .putInt(local.getInt(22))
+                .putShort((short) nameLength)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putInt(0)
+                .putInt((int) offset)
+                .put(local.duplicate().position(LOC_HEADER).limit(LOC_HEADER + nameLength))
+                .flip();
+        return record;
+    }
+
+    private static ByteBuffer endHeader(int entries, int cenSize, long cenOffset, ByteBuffer comment) {
+        ByteBuffer end = ByteBuffer.allocate(END_HEADER + comment.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+        end.putInt(END_SIG)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) entries)
+                .putShort((short) entries)
+                .putInt(cenSize)
+                .putInt((int) cenOffset)
+                .putShort((short) comment.remaining())
+                .put(comment)
+                .flip();
+        return end;
+    }
+
+    private static int dosTime(LocalDateTime time) {
+        return (time.getYear() - 1980) << 25
+                | time.getMonthValue() << 21
+                | time.getDayOfMonth() << 16
+                | time.getHour() << 11
+                | time.getMinute() << 5
+                | time.getSecond() >> 1;
+    }
+
+    private static void transferFully(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        long done = 0;
+        while (done < count) {
+            long n = in.transferTo(position + done, count - done, out);
+            if (n <= 0) {
+                throw new ZipException("Fin de archivo inesperado");
+            }
+            done += n;
+        }
+    }
+
+    private static void write(ByteArrayOutputStream os, ByteBuffer buffer) {
+        os.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += out.write(buffer, position);
+        }
+    }
+
+}
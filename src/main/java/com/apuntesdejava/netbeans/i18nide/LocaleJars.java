@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Writes the translations of every module as NetBeans locale JARs,
+ * {@code locale/<module>_<lang>.jar} next to the module JAR, which hold only
+ * the translated bundles. The module JARs are not touched, so no backup is
+ * needed: deleting the locale JARs undoes the translation.
+ */
+public class LocaleJars {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocaleJars.class);
+
+    private static final String LOCALE_DIR = "locale";
+    private static final String TEMP_SUFFIX = ".i18n-tmp";
+
+    private final List<String> langs;
+    private final Concurrency concurrency;
+    private final RunMetrics metrics;
+
+    public LocaleJars(List<String> langs, Concurrency concurrency, RunMetrics metrics) {
+        this.langs = langs;
+        this.concurrency = concurrency;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Writes one locale JAR per module and language, several modules at a
+     * time, and records them in the manifest. When incremental, the locale
+     * JARs whose translations did not change are skipped.
+     */
+    public void write(List<EntryLocalization> outputDirs, StoreManifest manifest, boolean incremental) {
+        int written = 0;
+        int skipped = 0;
+        ExecutorService executor = concurrency.newExecutor();
+        try {
+            List<Future<List<Storer.Stored>>> futures = new ArrayList<>(outputDirs.size());
+            outputDirs.forEach((entry) -> futures.add(executor.submit(() -> write(entry, manifest, incremental))));
+            for (Future<List<Storer.Stored>> future : futures) {
+                try {
+                    for (Storer.Stored jar : future.get()) {
+                        if (jar.fingerprint == null) {
+                            skipped++;
+                        } else {
+                            synchronized (manifest) {
+                                manifest.put(jar.jar, jar.fingerprint, jar.bundles);
+                            }
+                            written++;
+                        }
+                    }
+                } catch (ExecutionException ex) {
+                    LOGGER.error(ex.getCause().getMessage(), ex.getCause());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.error(ex.getMessage(), ex);
+        } finally {
+            executor.shutdownNow();
+        }
+        LOGGER.info("JARs locale escritos:{} sin cambios:{}", written, skipped);
+    }
+
+    private List<Storer.Stored> write(EntryLocalization entry, StoreManifest manifest, boolean incremental) throws IOException {
+        List<Storer.Stored> jars = new ArrayList<>();
+        if (Archives.isNested(entry.getSourcePath())) {
+            // the locale JARs of an NBM would have to be added to it
+            LOGGER.warn("{}: JAR dentro de un NBM, se guarda con store", entry.getSourcePath());
+            return jars;
+        }
+        for (String lang : langs) {
+            Map<String, Path> translations = new TreeMap<>(Storer.findTranslations(entry, Collections.singletonList("Bundle_" + lang + ".properties")));
+            if (translations.isEmpty()) {
+                continue;
+            }
+            Path localeJar = localeJar(entry.getSourcePath(), lang);
+            Storer.Stored jar = new Storer.Stored(localeJar.toString(), Storer.hashes(translations));
+            boolean unchanged;
+            synchronized (manifest) {
+                unchanged = incremental && Files.exists(localeJar)
+                        && manifest.isStored(jar.jar, JarFingerprint.of(localeJar, false), jar.bundles);
+            }
+            if (unchanged) {
+                LOGGER.debug("Sin cambios {}", localeJar);
+            } else {
+                write(localeJar, translations);
+                SourceHashes.record(translations.values());
+                jar.fingerprint = JarFingerprint.of(localeJar, false);
+                metrics.increment(RunMetrics.Counter.LOCALE_JARS_WRITTEN);
+                metrics.add(RunMetrics.Counter.BYTES_WRITTEN, jar.fingerprint.getSize());
+            }
+            jars.add(jar);
+        }
+        return jars;
+    }
+
+    /**
+     * The locale JAR of {@code modules/org-foo.jar} in {@code es} is
+     * {@code modules/locale/org-foo_es.jar}.
+     */
+    static Path localeJar(Path moduleJar, String lang) {
+        String name = StringUtils.removeEndIgnoreCase(moduleJar.getFileName().toString(), ".jar");
+        return moduleJar.resolveSibling(LOCALE_DIR).resolve(name + '_' + lang + ".jar");
+    }
+
+    private void write(Path localeJar, Map<String, Path> translations) throws IOException {
+        Files.createDirectories(localeJar.getParent());
+        Path temp = localeJar.resolveSibling(localeJar.getFileName().toString() + TEMP_SUFFIX);
+        try {
+            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(temp)); JarOutputStream jos = new JarOutputStream(os)) {
+                for (Map.Entry<String, Path> translation : translations.entrySet()) {
+                    LOGGER.debug("Agregando {}", translation.getValue());
+                    JarEntry e = new JarEntry(translation.getKey());
+                    e.setTime(Files.getLastModifiedTime(translation.getValue()).toMillis());
+                    jos.putNextEntry(e);
+                    metrics.add(RunMetrics.Counter.BYTES_READ, Files.copy(translation.getValue(), jos));
+                    jos.closeEntry();
+                }
+            }
+            Files.move(temp, localeJar, ATOMIC_MOVE, REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+}
@@ -20,9 +20,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
@@ -32,19 +34,21 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedHashSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import javax.json.bind.Jsonb;
 import javax.json.bind.JsonbBuilder;
 import javax.json.bind.JsonbConfig;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,30 +63,67 @@ public class Main {
     private static final String COMMAND_PREFIX = "--cmd=";
     private static final String NETBEANS_PREFIX = "--netbeans=";
     private static final String LANGUAGE_PREFIX = "--lang=";
+    private static final String OUTPUT_PREFIX = "--output=";
+    private static final String THREADS_PREFIX = "--threads=";
+    private static final String HASH_OPTION = "--hash";
+    private static final String INCREMENTAL_OPTION = "--incremental";
+    private static final String MEMORY_PREFIX = "--memory=";
+    private static final String VIRTUAL_OPTION = "--virtual";
+    private static final String IO_LIMIT_PREFIX = "--io-limit=";
+    private static final String CACHE_PREFIX = "--cache=";
+    private static final String CACHE_SIZE_PREFIX = "--cache-size=";
+    private static final String DAEMON_OPTION = "--daemon";
+    private static final String MODULE_PREFIX = "--module=";
+    private static final String KEY_PREFIX = "--key=";
+    private static final String QUERY_PREFIX = "--query=";
     private static final String HELP_PREFIX = "--help";
 
-    private static final String JAR = ".jar";
-    private static final String STRUCTURE_FILENAME = "structure.json";
-    private static final String BUNDLE_NAME = "Bundle.properties";
+    private static final String STRUCTURE_FILENAME = "structure.idx";
+    private static final String STRUCTURE_JSON_FILENAME = "structure.json";
+    private static final String COVERAGE_FILENAME = "coverage.json";
+    private static final String SEARCH_FILENAME = "search.idx";
+    private static final int FIND_LIMIT = 200;
+    private static final String STORE_MANIFEST_FILENAME = "store-manifest.json";
+    private static final String REPORT_SUFFIX = "-report.json";
 
     private static List<EntryLocalization> outputDirs = Collections.emptyList();
 
     private final Configuration configuration;
-    private final Jsonb jsonb;
+    private Jsonb jsonb;
+    private FileTime structureModified;
+    private SearchIndex searchIndex;
+    private FileTime searchModified;
+    private final RunMetrics metrics;
+    // structure.idx and search.idx are mapped instead of read into the heap
+    private final boolean mapped;
 
-    private final String bundleL10n;
+    private final List<String> bundlesL10n;
 
-    private Main(Configuration configuration) {
+    private Main(Configuration configuration, RunMetrics metrics, boolean mapped) {
+        this.metrics = metrics;
 
-        this.bundleL10n = StringUtils.isNotBlank(configuration.getLang()) ? ("Bundle_" + configuration.getLang() + ".properties") : null;
+        this.bundlesL10n = configuration.getLangs().stream().map((lang) -> "Bundle_" + lang + ".properties").collect(Collectors.toList());
 
-        JsonbConfig config = new JsonbConfig()
-                .withSerializers(new PathSerializer())
-                .withDeserializers(new PathDeserializer());
-        this.jsonb = JsonbBuilder.create(config);
         this.configuration = configuration;
+        this.mapped = mapped;
 
-        loadOutputDirs();
+        try (RunMetrics.Phase phase = metrics.phase("load")) {
+            loadOutputDirs(mapped);
+        }
+    }
+
+    /**
+     * JSON-B is only bootstrapped when a JSON file is actually read or
+     * written, since it dominates the startup time.
+     */
+    private Jsonb jsonb() {
+        if (jsonb == null) {
+            JsonbConfig config = new JsonbConfig()
+                    .withSerializers(new PathSerializer())
+                    .withDeserializers(new PathDeserializer());
+            jsonb = JsonbBuilder.create(config);
+        }
+        return jsonb;
     }
 
 
@@ -91,6 +132,17 @@ public class Main {
         String netbeansDir = null;
         String outputDir = null;
         String lang = null;
+        String threads = null;
+        boolean hash = false;
+        boolean incremental = false;
+        String memoryDir = null;
+        boolean virtualThreads = false;
+        String ioLimit = null;
+        String cacheDir = null;
+        String cacheSize = null;
+        boolean daemon = false;
+        String key = null;
+        String query = null;
         String cmd = "init";
 
         for (String arg : args) {
@@ -101,151 +153,384 @@ public class Main {
                 netbeansDir = StringUtils.substringAfter(arg, NETBEANS_PREFIX);
             } else if (StringUtils.startsWith(arg, LANGUAGE_PREFIX)) {
                 lang = StringUtils.substringAfter(arg, LANGUAGE_PREFIX);
+            } else if (StringUtils.startsWith(arg, OUTPUT_PREFIX)) {
+                outputDir = StringUtils.substringAfter(arg, OUTPUT_PREFIX);
+            } else if (StringUtils.startsWith(arg, THREADS_PREFIX)) {
+                threads = StringUtils.substringAfter(arg, THREADS_PREFIX);
+            } else if (StringUtils.equals(arg, HASH_OPTION)) {
+                hash = true;
+            } else if (StringUtils.equals(arg, INCREMENTAL_OPTION)) {
+                incremental = true;
+            } else if (StringUtils.startsWith(arg, MEMORY_PREFIX)) {
+                memoryDir = StringUtils.substringAfter(arg, MEMORY_PREFIX);
+            } else if (StringUtils.equals(arg, VIRTUAL_OPTION)) {
+                virtualThreads = true;
+            } else if (StringUtils.startsWith(arg, IO_LIMIT_PREFIX)) {
+                ioLimit = StringUtils.substringAfter(arg, IO_LIMIT_PREFIX);
+            } else if (StringUtils.startsWith(arg, CACHE_SIZE_PREFIX)) {
+                cacheSize = StringUtils.substringAfter(arg, CACHE_SIZE_PREFIX);
+            } else if (StringUtils.startsWith(arg, CACHE_PREFIX)) {
+                cacheDir = StringUtils.substringAfter(arg, CACHE_PREFIX);
+            } else if (StringUtils.equals(arg, DAEMON_OPTION)) {
+                daemon = true;
+            } else if (StringUtils.startsWith(arg, KEY_PREFIX)) {
+                key = StringUtils.substringAfter(arg, KEY_PREFIX);
+            } else if (StringUtils.startsWith(arg, QUERY_PREFIX)) {
+                query = StringUtils.substringAfter(arg, QUERY_PREFIX);
             } else if (StringUtils.startsWith(arg, HELP_PREFIX)) {
                 showHelp();
                 return;
             }
         }
 
+        if (daemon) {
+            // the daemon answers with the structure already loaded, so nothing is loaded here
+            List<String> request = Arrays.stream(args).filter((arg) -> !StringUtils.equals(arg, DAEMON_OPTION)).collect(Collectors.toList());
+            try {
+                if (!Daemon.send(Paths.get(Daemon.SOCKET_FILENAME), request, System.out)) {
+                    LOGGER.error("No hay daemon en {}, se inicia con --cmd=serve", Daemon.SOCKET_FILENAME);
+                }
+            } catch (IOException ex) {
+                LOGGER.error(ex.getMessage(), ex);
+            }
+            return;
+        }
 
         //create configuration
         Configuration configuration;
-        if (netbeansDir == null && lang == null && outputDir == null) {
-            configuration = Configuration.spanishConfig();
-        } else {
-            try {
-                configuration = new Configuration.ConfigurationBuilder().outputDir(outputDir).lang(lang).netbeansDir(netbeansDir).build();
-            } catch (NoSuchFieldException e) {
-                LOGGER.error("Missing requires command line parameter", e);
-                return;
+        try {
+            Configuration.ConfigurationBuilder builder;
+            if (netbeansDir == null && lang == null && outputDir == null) {
+                builder = new Configuration.ConfigurationBuilder(Configuration.spanishConfig());
+            } else {
+                builder = new Configuration.ConfigurationBuilder().outputDir(outputDir).lang(lang).netbeansDir(netbeansDir);
+            }
+            if (threads != null) {
+                builder.threads(NumberUtils.toInt(threads));
+            }
+            if (memoryDir != null) {
+                builder.memoryDir(memoryDir);
+            }
+            if (ioLimit != null) {
+                builder.ioLimit(NumberUtils.toInt(ioLimit, -1));
             }
+            if (cacheSize != null) {
+                builder.cacheSize(NumberUtils.toLong(cacheSize));
+            }
+            configuration = builder.fingerprintHash(hash).incremental(incremental).virtualThreads(virtualThreads).cacheDir(cacheDir).build();
+        } catch (NoSuchFieldException e) {
+            LOGGER.error("Missing requires command line parameter", e);
+            return;
         }
 
-        Main main = new Main(configuration);
+        // init rewrites the indexes, and a daemon outlives the processes that
+        // rewrite them, so both read them into the heap instead of mapping them
+        boolean init = !StringUtils.equalsAnyIgnoreCase(cmd, "store", "export", "status", "prefill", "rollback", "watch", "locale", "lookup", "find", "serve");
+        // the long-running commands read the indexes, so init can replace them meanwhile
+        boolean longRunning = StringUtils.equalsAnyIgnoreCase(cmd, "serve", "watch");
+        Main main = new Main(configuration, new RunMetrics(StringUtils.lowerCase(cmd)), !init && !longRunning);
 
         if (StringUtils.equalsIgnoreCase(cmd, "store")) {
-            Storer.store(outputDirs, main.getBundleL10n());
+            main.store();
+        } else if (StringUtils.equalsIgnoreCase(cmd, "export")) {
+            main.export();
+        } else if (StringUtils.equalsIgnoreCase(cmd, "status")) {
+            main.status();
+        } else if (StringUtils.equalsIgnoreCase(cmd, "prefill")) {
+            main.prefill();
+        } else if (StringUtils.equalsIgnoreCase(cmd, "rollback")) {
+            main.rollback();
+        } else if (StringUtils.equalsIgnoreCase(cmd, "watch")) {
+            main.watch();
+        } else if (StringUtils.equalsIgnoreCase(cmd, "locale")) {
+            main.locale();
+        } else if (StringUtils.equalsIgnoreCase(cmd, "lookup")) {
+            main.lookup(key);
+        } else if (StringUtils.equalsIgnoreCase(cmd, "find")) {
+            main.find(query);
+        } else if (StringUtils.equalsIgnoreCase(cmd, "serve")) {
+            main.serve();
         } else {
             main.start();
         }
+        main.saveReport();
     }
 
     private static void showHelp() {
-        LOGGER.info("== NetBeans L10N Tool ==\n--cmd=[init|store]  init: Inicializa el entorno, extrae los bundle\n                   store: Guarda los bundle en el netbeans\n--netbeans={netbeans_dir}  Ruta de NetBeans");
+        LOGGER.info("== NetBeans L10N Tool ==\n--cmd=[init|store|watch|locale|rollback|status|prefill|lookup|find|serve|export]  init: Inicializa el entorno, extrae los bundle (si ya existe, solo los JAR nuevos o modificados)\n                   store: Guarda los bundle en el netbeans (si el anterior se interrumpio, lo completa primero)\n                   watch: Observa el directorio de salida y guarda en el netbeans cada JAR cuyos bundle se modifican\n                   locale: Guarda los bundle como JAR locale/{modulo}_{lang}.jar junto a cada modulo, sin modificar los JAR del netbeans\n                   rollback: Restaura los JAR modificados por el ultimo store\n                   status: Muestra la cobertura de la traduccion: claves faltantes, desactualizadas (el original cambio desde que se guardo su traduccion) y sobrantes, y las traducidas con el mismo texto que el original\n                   prefill: Completa las claves sin traducir con la memoria de traduccion\n                   lookup: Muestra los bundle que definen la clave --key={key}, con sus traducciones\n                   find: Busca las claves cuyo nombre o texto tiene todas las palabras de --query={texto}, en el indice que crea init\n                   serve: Inicia un daemon en i18n.sock que mantiene la estructura y los bundle en memoria; atiende store, status, lookup y find, y stop lo detiene\n                   export: Exporta la estructura a structure.json\n--netbeans={netbeans_dir}  Ruta de NetBeans, o de un directorio con NBM; se traducen los JAR que contiene cada NBM\n--output={output_dir}  Directorio donde se extraen los bundle\n--lang={lang}[,{lang}...]  Idiomas de los bundle, por ejemplo es,pt_BR,ja\n--threads={n}  Hilos usados para extraer y guardar los bundle (por defecto, uno por procesador)\n--hash  Compara los JAR por el hash de su directorio central, ademas del tamano y la fecha\n--incremental  store, locale: Solo reescribe los JAR cuyas traducciones cambiaron desde el ultimo store\n--memory={memory_dir}  Directorio de la memoria de traduccion (por defecto, translation-memory)\n--virtual  Usa un hilo virtual por JAR, si Java lo permite (21 o superior)\n--io-limit={n}  Maximo de JAR leidos o escritos a la vez (por defecto, sin limite)\n--cache={cache_dir}  init: Cache de bundle extraidos, compartida entre instalaciones de NetBeans; los JAR ya vistos no se vuelven a leer\n--cache-size={mb}  Tamano maximo de la cache, se eliminan los JAR usados hace mas tiempo (por defecto, 1024)\n--daemon  Envia el comando al daemon iniciado con serve, en lugar de ejecutarlo\n--module={jar}  Con --daemon, limita store, status, lookup y find a un modulo, por ejemplo org-netbeans-core.jar");
     }
 
 
     private void start() {
         if (outputDirs.isEmpty()) {
             create();
+        } else {
+            update();
         }
     }
 
     private void create() {
         Collection<Path> files = searchFiles(configuration.getNetbeansDir());
         createStructure(files, configuration.getOutputDir());
-        outputDirs.forEach((f) -> LOGGER.info(f.toString()));
+        outputDirs.forEach((f) -> LOGGER.debug(f.toString()));
         if (!outputDirs.isEmpty()) {
-            extractBundles();
+            extractBundles(outputDirs);
         }
-
+        indexBundles(outputDirs);
     }
 
-    private void search(Set<Path> files, Path dir) {
+    /**
+     * Re-extracts only the JARs added or changed since the last
+     * structure.idx, and drops the ones that are no longer in NetBeans.
+     */
+    private void update() {
+        Map<Path, EntryLocalization> previous = new HashMap<>();
+        outputDirs.forEach((entry) -> previous.put(entry.getSourcePath(), entry));
+        Collection<Path> files = searchFiles(configuration.getNetbeansDir());
 
-        try (Stream<Path> walk = Files.walk(dir)) {
-            files.addAll(walk.filter(Files::isRegularFile).filter((f) -> {
-                if (f.toString().endsWith(JAR)) {
-                    try (JarFile jarFile = new JarFile(f.toString())) {
+        List<EntryLocalization> entries = new ArrayList<>();
+        List<EntryLocalization> pending = new ArrayList<>();
+        int added = 0;
+        int changed = 0;
+        RunMetrics.Phase phase = metrics.phase("structure");
+        for (Path f : new TreeSet<>(files)) {
+            EntryLocalization entry = previous.remove(f);
+            if (entry == null) {
+                entry = createEntry(f, configuration.getOutputDir());
+                if (entry == null) {
+                    continue;
+                }
+                added++;
+                pending.add(entry);
+            } else {
+                JarFingerprint fingerprint = fingerprint(f);
+                if (fingerprint == null || !fingerprint.matches(entry.getFingerprint())) {
+                    changed++;
+                    pending.add(entry);
+                }
+                entry.setFingerprint(fingerprint);
+            }
+            entries.add(entry);
+        }
+        phase.close();
+        previous.keySet().forEach((f) -> LOGGER.info("Eliminado: {}", f));
+        LOGGER.info("JARs nuevos:{} modificados:{} eliminados:{} sin cambios:{}",
+                added, changed, previous.size(), entries.size() - pending.size());
+
+        outputDirs = entries;
+        if (pending.isEmpty()) {
+            saveOutputDirs();
+        } else {
+            extractBundles(pending);
+        }
+        if (!pending.isEmpty() || !previous.isEmpty() || !Files.exists(Paths.get(SEARCH_FILENAME))) {
+            indexBundles(pending);
+        }
+    }
 
-                        long cuenta = jarFile.stream().filter((e) -> !e.isDirectory() && e.getRealName().endsWith("Bundle.properties")).count();
-                        return cuenta > 0;
-                    } catch (IOException ex) {
-                        LOGGER.error(ex.getMessage(), ex);
-                    }
+    private Set<Path> searchFiles(Path netbeansDir) {
+        NetbeansScanner scanner = new NetbeansScanner(Concurrency.of(configuration));
+        Set<Path> files;
+        try (RunMetrics.Phase phase = metrics.phase("scan")) {
+            files = scanner.scan(netbeansDir);
+        }
+        metrics.add(RunMetrics.Counter.DIRECTORIES_WALKED, scanner.getDirectoriesVisited());
+        metrics.add(RunMetrics.Counter.JARS_OPENED, scanner.getJarsOpened());
+        metrics.add(RunMetrics.Counter.ENTRIES_SCANNED, scanner.getEntriesScanned());
+        metrics.add(RunMetrics.Counter.BYTES_READ, scanner.getBytesRead());
+        LOGGER.info("Directorios recorridos:{} JARs abiertos:{} JARs con bundles:{} Tiempo:{} ms",
+                scanner.getDirectoriesVisited(), scanner.getJarsOpened(), files.size(), scanner.getElapsedMillis());
+        return files;
+    }
+
+    private void createStructure(Collection<Path> files, Path outputDir) {
+        outputDirs = new ArrayList<>();
+        try (RunMetrics.Phase phase = metrics.phase("structure")) {
+            files.stream().sorted().forEach((f) -> {
+                EntryLocalization entry = createEntry(f, outputDir);
+                if (entry != null) {
+                    outputDirs.add(entry);
                 }
-                return false;
-            }).collect(Collectors.toList()));
+            });
+        }
+    }
+
+    private EntryLocalization createEntry(Path f, Path outputDir) {
+        try {
+            Path g = Paths.get(outputDir.toString(), configuration.getNetbeansDir().relativize(f).toString());
+            Files.createDirectories(g);
+            EntryLocalization entry = new EntryLocalization(f, g);
+            entry.setFingerprint(fingerprint(f));
+            return entry;
         } catch (IOException ex) {
             LOGGER.error(ex.getMessage(), ex);
         }
+        return null;
     }
 
-    private Set<Path> searchFiles(Path netbeansDir) {
-        Set<Path> dirs = null;
-        Set<Path> files = new LinkedHashSet<>();
-        try (Stream<Path> walk = Files.walk(netbeansDir)) {
-            dirs = new LinkedHashSet<>(walk.filter(Files::isDirectory).collect(Collectors.toList()));
+    private JarFingerprint fingerprint(Path f) {
+        try {
+            return JarFingerprint.of(f, configuration.isFingerprintHash());
         } catch (IOException ex) {
             LOGGER.error(ex.getMessage(), ex);
         }
-        if (dirs != null) {
-            dirs.forEach((d) -> {
-                LOGGER.info("==>{}", d);
-                search(files, d);
-            });
+        return null;
+    }
+
+    private void extractBundles(List<EntryLocalization> entries) {
+        ExtractionCache cache = configuration.getCacheDir() == null ? null
+                : new ExtractionCache(configuration.getCacheDir(), configuration.getCacheSize() * 1024 * 1024, bundlesL10n);
+        BundleExtractor extractor = new BundleExtractor(bundlesL10n, Concurrency.of(configuration), cache, metrics);
+        Map<Path, Throwable> errors;
+        try (RunMetrics.Phase phase = metrics.phase("extract")) {
+            errors = extractor.extract(entries);
         }
-        return files;
+        if (cache != null) {
+            try (RunMetrics.Phase phase = metrics.phase("evict")) {
+                cache.evict();
+            } catch (IOException ex) {
+                LOGGER.error(ex.getMessage(), ex);
+            }
+        }
+        errors.forEach((jar, ex) -> LOGGER.error("No se pudo extraer {}: {}", jar, ex.getMessage(), ex));
+        // a JAR that failed is extracted again on the next init
+        entries.stream().filter((entry) -> errors.containsKey(entry.getSourcePath())).forEach((entry) -> entry.setFingerprint(null));
+        LOGGER.info("JARs extraidos:{} Errores:{}", entries.size() - errors.size(), errors.size());
+        saveOutputDirs();
     }
 
-    private void createStructure(Collection<Path> files, Path outputDir) {
-        outputDirs = new ArrayList<>();
-        try {
-            Files.createDirectories(outputDir);
-            files.forEach((f) -> {
+    /**
+     * Rewrites search.idx, parsing again only the bundles just extracted.
+     */
+    private void indexBundles(List<EntryLocalization> extracted) {
+        try (RunMetrics.Phase phase = metrics.phase("index")) {
+            SearchIndex.update(Paths.get(SEARCH_FILENAME), outputDirs, extracted, Concurrency.of(configuration), metrics);
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Stores the translations. A store interrupted by a crash is completed
+     * first: its prepared JARs are moved into place, and then every JAR is
+     * stored again.
+     */
+    private void store() {
+        StoreManifest manifest = loadStoreManifest();
+        try (StoreJournal journal = StoreJournal.open(Paths.get(StoreJournal.FILENAME))) {
+            if (journal.isInterrupted()) {
+                LOGGER.warn("Se reanuda el store interrumpido");
+                Storer.resume(journal);
+            }
+            try (RunMetrics.Phase phase = metrics.phase("store")) {
+                new Storer(bundlesL10n, Concurrency.of(configuration), metrics).store(outputDirs, manifest, configuration.isIncremental(), journal);
+            }
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+        }
+        saveStoreManifest(manifest);
+    }
+
+    /**
+     * Puts back the JARs changed by the last store, or by a store that was
+     * interrupted.
+     */
+    private void rollback() {
+        StoreManifest manifest = loadStoreManifest();
+        try (StoreJournal journal = StoreJournal.open(Paths.get(StoreJournal.FILENAME))) {
+            if (journal.isEmpty()) {
+                LOGGER.info("No hay store que deshacer");
+                return;
+            }
+            try (RunMetrics.Phase phase = metrics.phase("rollback")) {
+                LOGGER.info("JARs restaurados:{}", Storer.rollback(journal, manifest));
+            }
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+        }
+        saveStoreManifest(manifest);
+    }
 
+    /**
+     * Stores again, as they are saved, the JARs whose translations change,
+     * until the process is stopped. Every batch is an incremental store of
+     * its JARs.
+     */
+    private void watch() {
+        StoreManifest manifest = loadStoreManifest();
+        Storer storer = new Storer(bundlesL10n, Concurrency.of(configuration), metrics);
+        try (StoreJournal journal = StoreJournal.open(Paths.get(StoreJournal.FILENAME));
+                BundleWatcher watcher = new BundleWatcher(outputDirs, bundlesL10n)) {
+            if (journal.isInterrupted()) {
+                LOGGER.warn("Se reanuda el store interrumpido");
+                Storer.resume(journal);
+            }
+            LOGGER.info("Observando {} directorios, Ctrl+C para terminar", watcher.getDirectories());
+            watcher.watch((entries) -> {
+                long start = System.nanoTime();
                 try {
-                    Path g = Paths.get(outputDir.toString(), configuration.getNetbeansDir().relativize(f).toString());
-                    outputDirs.add(new EntryLocalization(f, g));
-                    Files.createDirectories(g);
+                    storer.store(entries, manifest, true, journal);
                 } catch (IOException ex) {
                     LOGGER.error(ex.getMessage(), ex);
                 }
+                saveStoreManifest(manifest);
+                LOGGER.info("{} guardado en {} ms", entries.size() == 1 ? entries.get(0).getSourcePath() : entries.size() + " JARs",
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
             });
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.error(ex.getMessage(), ex);
         } catch (IOException ex) {
             LOGGER.error(ex.getMessage(), ex);
         }
+    }
 
+    /**
+     * Stores the translations as locale JARs, leaving the module JARs as they
+     * are.
+     */
+    private void locale() {
+        StoreManifest manifest = loadStoreManifest();
+        try (RunMetrics.Phase phase = metrics.phase("locale")) {
+            new LocaleJars(configuration.getLangs(), Concurrency.of(configuration), metrics).write(outputDirs, manifest, configuration.isIncremental());
+        }
+        saveStoreManifest(manifest);
     }
 
-    private void extractBundles() {
-
-        outputDirs.forEach((dir) -> {
-            try (JarFile jarFile = new JarFile(dir.sourcePath.toString())) {
-                List<JarEntry> bundles = jarFile.stream().filter((e)
-                        -> !e.isDirectory() && (StringUtils.endsWith(e.getRealName(), BUNDLE_NAME)
-                        || (StringUtils.isNotBlank(bundleL10n) && StringUtils.endsWith(e.getRealName(), bundleL10n)))
-                ).collect(Collectors.toList());
-                bundles.forEach((b) -> {
-                    try {
-                        String bundleName = b.getName();
-                        Path bundleOutputPath = Paths.get(dir.outputPath.toString(), bundleName);
-                        if (!StringUtils.endsWith(bundleOutputPath.toString(), bundleL10n)) {
-                            dir.addBundleOutputPath(bundleOutputPath);
-                        }
-                        Path bundleParent = bundleOutputPath.getParent();
-                        Files.createDirectories(bundleParent);
-
-                        try (InputStream is = jarFile.getInputStream(b)) {
-                            byte[] buffer = is.readAllBytes();
-                            String text = new String(buffer);
-                            Files.writeString(bundleOutputPath, text);
-                        }
-                    } catch (IOException ex) {
-                        LOGGER.error(ex.getMessage(), ex);
-                    }
-                });
+    private StoreManifest loadStoreManifest() {
+        if (Files.exists(Paths.get(STORE_MANIFEST_FILENAME))) {
+            try (InputStream is = new FileInputStream(STORE_MANIFEST_FILENAME)) {
+                return jsonb().fromJson(is, StoreManifest.class);
             } catch (IOException ex) {
                 LOGGER.error(ex.getMessage(), ex);
             }
-        });
-        saveOutputDirs();
+        }
+        return new StoreManifest();
     }
 
-    private void loadOutputDirs() {
-        try (InputStream is = new FileInputStream(STRUCTURE_FILENAME)) {
-            outputDirs = jsonb.fromJson(is, new ArrayList<EntryLocalization>() {
-            }.getClass().getGenericSuperclass());
+    private void saveStoreManifest(StoreManifest manifest) {
+        try (OutputStream os = new FileOutputStream(STORE_MANIFEST_FILENAME)) {
+            jsonb().toJson(manifest, os);
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Loads structure.idx, or the structure.json written by older versions
+     * when there is no index yet.
+     */
+    private void loadOutputDirs(boolean mapped) {
+        Path index = Paths.get(STRUCTURE_FILENAME);
+        try {
+            if (Files.exists(index)) {
+                outputDirs = mapped ? StructureIndex.map(index) : StructureIndex.read(index);
+            } else {
+                try (InputStream is = new FileInputStream(STRUCTURE_JSON_FILENAME)) {
+                    outputDirs = jsonb().fromJson(is, new ArrayList<EntryLocalization>() {
+                    }.getClass().getGenericSuperclass());
+                }
+            }
             LOGGER.info("Directorios detectados:{}", outputDirs.size());
         } catch (IOException ex) {
             LOGGER.error(ex.getMessage());
@@ -253,14 +538,263 @@ public class Main {
     }
 
     private void saveOutputDirs() {
-        try (OutputStream os = new FileOutputStream(STRUCTURE_FILENAME)) {
-            jsonb.toJson(outputDirs, os);
+        try (RunMetrics.Phase phase = metrics.phase("save")) {
+            StructureIndex.write(outputDirs, Paths.get(STRUCTURE_FILENAME));
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Compares the extracted bundles with their translations, logs the totals
+     * of every language and writes the bundles with pending work to
+     * coverage.json.
+     */
+    private void status() {
+        TranslationStatus status = new TranslationStatus(configuration.getLangs(), Concurrency.of(configuration), metrics);
+        List<BundleCoverage> coverages;
+        try (RunMetrics.Phase phase = metrics.phase("status")) {
+            coverages = status.check(outputDirs);
+        }
+        coverages.stream().filter((c) -> !c.isComplete()).forEach((c)
+                -> LOGGER.debug("{} [{}] faltantes:{} desactualizadas:{} sobrantes:{} identicas:{}", c.getBundle(), c.getLang(), c.getMissing(), c.getStale(), c.getExtra(), c.getIdentical()));
+        status.totals(coverages).values().forEach((t) -> LOGGER.info(summary(t)));
+        try (OutputStream os = new FileOutputStream(COVERAGE_FILENAME)) {
+            jsonb().toJson(coverages.stream().filter((c) -> !c.isComplete()).collect(Collectors.toList()), os);
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+        }
+    }
+
+    private static String summary(BundleCoverage t) {
+        return String.format("[%s] claves:%d traducidas:%d identicas:%d faltantes:%d desactualizadas:%d sobrantes:%d cobertura:%.1f%%", t.getLang(), t.getKeys(),
+                t.getTranslated(), t.getIdentical(), t.getMissing(), t.getStale(), t.getExtra(), t.getCoverage());
+    }
+
+    /**
+     * Logs the bundles that define the key, with its translations.
+     */
+    private void lookup(String key) {
+        if (StringUtils.isEmpty(key)) {
+            LOGGER.error("Falta --key={clave}");
+            return;
+        }
+        try (RunMetrics.Phase phase = metrics.phase("lookup")) {
+            lookup(outputDirs, key, new ParsedBundles(metrics), LOGGER::info);
+        }
+    }
+
+    private void lookup(List<EntryLocalization> entries, String key, ParsedBundles parsed, Consumer<String> out) {
+        int found = 0;
+        for (EntryLocalization entry : entries) {
+            if (entry.getBundleOutputPath() == null) {
+                continue;
+            }
+            for (Path bundle : entry.getBundleOutputPath()) {
+                try {
+                    String value = parsed.get(bundle).get(key);
+                    if (value == null) {
+                        continue;
+                    }
+                    found++;
+                    out.accept(bundle + " " + key + "=" + value);
+                    for (String lang : configuration.getLangs()) {
+                        Path translation = bundle.resolveSibling("Bundle_" + lang + ".properties");
+                        String t = Files.exists(translation) ? parsed.get(translation).get(key) : null;
+                        out.accept("  [" + lang + "] " + (t == null ? "(falta)" : t));
+                    }
+                } catch (IOException | IllegalArgumentException ex) {
+                    LOGGER.error("{}: {}", bundle, ex.getMessage());
+                }
+            }
+        }
+        out.accept("Bundles con " + key + ":" + found);
+    }
+
+    /**
+     * Logs the keys that have every word of the query.
+     */
+    private void find(String query) {
+        if (StringUtils.isBlank(query)) {
+            LOGGER.error("Falta --query={texto}");
+            return;
+        }
+        try (RunMetrics.Phase phase = metrics.phase("find")) {
+            find(query, null, LOGGER::info);
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+        }
+    }
+
+    private void find(String query, String module, Consumer<String> out) throws IOException {
+        SearchIndex index = searchIndex();
+        if (index == null) {
+            out.accept("No existe " + SEARCH_FILENAME + ", se crea con init");
+            return;
+        }
+        List<SearchIndex.Match> matches = index.find(query, (jar)
+                -> module == null || StringUtils.equalsAny(jar.getFileName().toString(), module, module + ".jar"), FIND_LIMIT + 1);
+        matches.stream().limit(FIND_LIMIT).forEach((match) -> out.accept(match.toString()));
+        if (matches.size() > FIND_LIMIT) {
+            out.accept("... se muestran las primeras " + FIND_LIMIT);
+        }
+        out.accept("Claves encontradas:" + Math.min(matches.size(), FIND_LIMIT));
+    }
+
+    /**
+     * Loads search.idx, again when an init rewrote it.
+     */
+    private SearchIndex searchIndex() throws IOException {
+        Path file = Paths.get(SEARCH_FILENAME);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        FileTime modified = Files.getLastModifiedTime(file);
+        if (searchIndex == null || !modified.equals(searchModified)) {
+            searchIndex = mapped ? SearchIndex.map(file) : SearchIndex.read(file);
+            searchModified = modified;
+        }
+        return searchIndex;
+    }
+
+    /**
+     * Answers store, status, lookup and find requests on the daemon socket
+     * until a stop request. The parsed bundles are kept between requests.
+     * The structure and the search index are held in the heap, so other
+     * processes can replace their files, and are loaded again when an init
+     * rewrites them.
+     */
+    private void serve() {
+        ParsedBundles parsed = new ParsedBundles(metrics);
+        TranslationStatus status = new TranslationStatus(configuration.getLangs(), Concurrency.of(configuration), parsed, metrics);
+        try (Daemon daemon = Daemon.bind(Paths.get(Daemon.SOCKET_FILENAME))) {
+            structureModified = structureModified();
+            LOGGER.info("Daemon escuchando en {}", Daemon.SOCKET_FILENAME);
+            daemon.serve((args, out) -> request(args, out, parsed, status));
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+        }
+    }
+
+    private boolean request(List<String> args, PrintWriter out, ParsedBundles parsed, TranslationStatus status) throws IOException {
+        long start = System.nanoTime();
+        String cmd = null;
+        String module = null;
+        String key = null;
+        String query = null;
+        boolean incremental = configuration.isIncremental();
+        for (String arg : args) {
+            if (StringUtils.startsWith(arg, COMMAND_PREFIX)) {
+                cmd = StringUtils.substringAfter(arg, COMMAND_PREFIX);
+            } else if (StringUtils.startsWith(arg, MODULE_PREFIX)) {
+                module = StringUtils.substringAfter(arg, MODULE_PREFIX);
+            } else if (StringUtils.startsWith(arg, KEY_PREFIX)) {
+                key = StringUtils.substringAfter(arg, KEY_PREFIX);
+            } else if (StringUtils.startsWith(arg, QUERY_PREFIX)) {
+                query = StringUtils.substringAfter(arg, QUERY_PREFIX);
+            } else if (StringUtils.equals(arg, INCREMENTAL_OPTION)) {
+                incremental = true;
+            }
+        }
+        FileTime modified = structureModified();
+        if (!Objects.equals(modified, structureModified)) {
+            LOGGER.info("{} cambio, se vuelve a cargar", STRUCTURE_FILENAME);
+            loadOutputDirs(mapped);
+            structureModified = modified;
+        }
+        String name = module;
+        List<EntryLocalization> entries = module == null ? outputDirs : outputDirs.stream()
+                .filter((entry) -> StringUtils.equalsAny(entry.getSourcePath().getFileName().toString(), name, name + ".jar"))
+                .collect(Collectors.toList());
+        if (StringUtils.equalsIgnoreCase(cmd, "status")) {
+            List<BundleCoverage> coverages = status.check(entries);
+            if (module != null) {
+                coverages.stream().filter((c) -> !c.isComplete()).forEach((c)
+                        -> out.println(c.getBundle() + " [" + c.getLang() + "] faltantes:" + c.getMissing() + " desactualizadas:" + c.getStale() + " sobrantes:" + c.getExtra() + " identicas:" + c.getIdentical()));
+            }
+            status.totals(coverages).values().forEach((t) -> out.println(summary(t)));
+        } else if (StringUtils.equalsIgnoreCase(cmd, "store")) {
+            StoreManifest manifest = loadStoreManifest();
+            try (StoreJournal journal = StoreJournal.open(Paths.get(StoreJournal.FILENAME))) {
+                if (journal.isInterrupted()) {
+                    Storer.resume(journal);
+                }
+                out.println("JARs reescritos:" + new Storer(bundlesL10n, Concurrency.of(configuration), metrics).store(entries, manifest, incremental, journal));
+            }
+            saveStoreManifest(manifest);
+        } else if (StringUtils.equalsIgnoreCase(cmd, "lookup") && key != null) {
+            lookup(entries, key, parsed, out::println);
+        } else if (StringUtils.equalsIgnoreCase(cmd, "find") && query != null) {
+            find(query, module, out::println);
+        } else if (StringUtils.equalsIgnoreCase(cmd, "stop")) {
+            out.println("Daemon detenido");
+            return false;
+        } else {
+            out.println("ERROR el daemon atiende --cmd=store, status, lookup --key={clave}, find --query={texto} o stop");
+            return true;
+        }
+        LOGGER.info("{} en {} ms", module == null ? cmd : cmd + ' ' + module, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return true;
+    }
+
+    private static FileTime structureModified() {
+        try {
+            return Files.getLastModifiedTime(Paths.get(STRUCTURE_FILENAME));
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Learns the translations of the output directory into the translation
+     * memory, and uses it to fill the keys that are still missing.
+     */
+    private void prefill() {
+        try {
+            Prefiller prefiller = new Prefiller(configuration.getLangs(), Concurrency.of(configuration), configuration.getMemoryDir(), metrics);
+            try (RunMetrics.Phase phase = metrics.phase("learn")) {
+                prefiller.learn(outputDirs);
+            }
+            try (RunMetrics.Phase phase = metrics.phase("prefill")) {
+                prefiller.prefill(outputDirs);
+            }
+            try (RunMetrics.Phase phase = metrics.phase("save")) {
+                prefiller.save();
+            }
         } catch (IOException ex) {
             LOGGER.error(ex.getMessage(), ex);
         }
+        LOGGER.info("Claves completadas:{}", metrics.get(RunMetrics.Counter.KEYS_PREFILLED));
+    }
+
+    private void export() {
+        try (RunMetrics.Phase phase = metrics.phase("export"); OutputStream os = new FileOutputStream(STRUCTURE_JSON_FILENAME)) {
+            jsonb().toJson(outputDirs, os);
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+        }
+        LOGGER.info("Estructura exportada a {}", STRUCTURE_JSON_FILENAME);
+    }
+
+    /**
+     * Writes the counters and phase times of the run next to structure.idx,
+     * as {command}-report.json.
+     */
+    private void saveReport() {
+        metrics.finish();
+        try (OutputStream os = new FileOutputStream(metrics.getCommand() + REPORT_SUFFIX)) {
+            jsonb().toJson(metrics, os);
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+        }
+        LOGGER.info("Tiempo total:{} ms {}", metrics.getTotalMillis(), metrics.getCounters());
     }
 
     public String getBundleL10n() {
-        return this.bundleL10n;
+        return this.bundlesL10n.isEmpty() ? null : this.bundlesL10n.get(0);
+    }
+
+    public List<String> getBundlesL10n() {
+        return this.bundlesL10n;
     }
 }
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.jar.JarFile;
+import java.util.zip.ZipException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Walks a NetBeans installation once and collects the JARs that contain at
+ * least one {@code Bundle.properties}. Every JAR is opened a single time, even
+ * when it is reachable through more than one path. The JARs are looked into
+ * on the calling thread, or in parallel when a {@link Concurrency} is given.
+ * <p>
+ * NBM files are looked into as well: every JAR they hold is opened inside
+ * the NBM, and the ones with bundles are returned as nested paths, see
+ * {@link Archives}.
+ */
+public class NetbeansScanner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NetbeansScanner.class);
+
+    private static final String JAR = ".jar";
+    private static final String BUNDLE_NAME = "Bundle.properties";
+    static final byte[] BUNDLE_BYTES = BUNDLE_NAME.getBytes(StandardCharsets.UTF_8);
+
+    private final Concurrency concurrency;
+    private long directoriesVisited;
+    private final LongAdder jarsOpened = new LongAdder();
+    private final LongAdder entriesScanned = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private long elapsedNanos;
+
+    public NetbeansScanner() {
+        this(null);
+    }
+
+    public NetbeansScanner(Concurrency concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public Set<Path> scan(Path netbeansDir) {
+        long start = System.nanoTime();
+        directoriesVisited = 0;
+        jarsOpened.reset();
+        entriesScanned.reset();
+        bytesRead.reset();
+
+        // keyed by real path; a link is kept only when no other path reaches the JAR
+        Map<Path, Path> jars = new LinkedHashMap<>();
+        try {
+            Files.walkFileTree(netbeansDir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    directoriesVisited++;
+                    LOGGER.debug("==>{}", dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (!isArchive(file, attrs)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    try {
+                        Path realPath = file.toRealPath();
+                        Path previous = jars.get(realPath);
+                        if (previous == null || (Files.isSymbolicLink(previous) && !attrs.isSymbolicLink())) {
+                            jars.put(realPath, file);
+                        }
+                    } catch (IOException ex) {
+                        LOGGER.error(ex.getMessage(), ex);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                    LOGGER.error(ex.getMessage(), ex);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+        }
+        Set<Path> files = new LinkedHashSet<>();
+        if (concurrency == null) {
+            jars.values().forEach((jar) -> files.addAll(withBundles(jar)));
+        } else {
+            check(new ArrayList<>(jars.values()), files);
+        }
+        elapsedNanos = System.nanoTime() - start;
+        return files;
+    }
+
+    private void check(List<Path> jars, Set<Path> files) {
+        ExecutorService executor = concurrency.newExecutor();
+        try {
+            List<Future<List<Path>>> futures = new ArrayList<>(jars.size());
+            jars.forEach((jar) -> futures.add(executor.submit(() -> withBundles(jar))));
+            for (Future<List<Path>> future : futures) {
+                try {
+                    files.addAll(future.get());
+                } catch (ExecutionException ex) {
+                    LOGGER.error(ex.getMessage(), ex.getCause());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.error(ex.getMessage(), ex);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static boolean isArchive(Path file, BasicFileAttributes attrs) {
+        if (!file.getFileName().toString().endsWith(JAR) && !Archives.isContainer(file)) {
+            return false;
+        }
+        return attrs.isRegularFile() || (attrs.isSymbolicLink() && Files.isRegularFile(file));
+    }
+
+    /**
+     * @return the JAR when it contains bundles, or the nested JARs of an NBM
+     * that contain them
+     */
+    private List<Path> withBundles(Path file) {
+        if (Archives.isContainer(file)) {
+            return nestedWithBundles(file);
+        }
+        return containsBundles(file) ? Collections.singletonList(file) : Collections.emptyList();
+    }
+
+    /**
+     * Opens every JAR of the NBM through its own central directory, and
+     * stops reading each one at its first bundle.
+     */
+    private List<Path> nestedWithBundles(Path nbm) {
+        List<Path> nested = new ArrayList<>();
+        jarsOpened.increment();
+        try (Archive archive = Archives.open(nbm)) {
+            archive.forEach((entry) -> {
+                entriesScanned.increment();
+                if (entry.isDirectory() || !entry.getName().endsWith(JAR)) {
+                    return true;
+                }
+                Path jarPath;
+                try {
+                    jarPath = Archives.nested(nbm, entry.getName());
+                } catch (ZipException ex) {
+                    LOGGER.warn("{}: {}", nbm, ex.getMessage());
+                    return true;
+                }
+                jarsOpened.increment();
+                bytesRead.add(Math.max(entry.getCompressedSize(), 0));
+                try (Archive jar = Archives.open(jarPath)) {
+                    if (containsBundles(jar)) {
+                        nested.add(jarPath);
+                    }
+                }
+                return true;
+            });
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+        }
+        return nested;
+    }
+
+    private boolean containsBundles(Archive archive) throws IOException {
+        boolean[] found = {false};
+        archive.forEach((entry) -> {
+            entriesScanned.increment();
+            found[0] = !entry.isDirectory() && entry.getName().endsWith(BUNDLE_NAME);
+            return !found[0];
+        });
+        return found[0];
+    }
+
+    private boolean containsBundles(Path file) {
+        jarsOpened.increment();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ZipCentralDirectory directory = ZipCentralDirectory.map(channel);
+            bytesRead.add(directory.end());
+            for (int pos = directory.first(); pos < directory.end(); pos = directory.next(pos)) {
+                entriesScanned.increment();
+                if (directory.nameEndsWith(pos, BUNDLE_BYTES)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (ZipException ex) {
+            LOGGER.debug("{}: {}", file, ex.getMessage());
+            try (Archive archive = new JarArchive(file)) {
+                return containsBundles(archive);
+            } catch (IOException ex1) {
+                LOGGER.error(ex1.getMessage(), ex1);
+            }
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+        }
+        return false;
+    }
+
+    /**
+     * Looks for a bundle in the mapped central directory, comparing the entry
+     * names as raw bytes.
+     */
+    static boolean containsBundles(Path file, byte[] suffix) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ZipCentralDirectory directory = ZipCentralDirectory.map(channel);
+            for (int pos = directory.first(); pos < directory.end(); pos = directory.next(pos)) {
+                if (directory.nameEndsWith(pos, suffix)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static boolean containsBundlesJarFile(Path file) throws IOException {
+        try (JarFile jarFile = new JarFile(file.toFile(), false)) {
+            return jarFile.stream().anyMatch((e) -> !e.isDirectory() && e.getName().endsWith(BUNDLE_NAME));
+        }
+    }
+
+    public long getDirectoriesVisited() {
+        return directoriesVisited;
+    }
+
+    public long getJarsOpened() {
+        return jarsOpened.sum();
+    }
+
+    public long getEntriesScanned() {
+        return entriesScanned.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+}
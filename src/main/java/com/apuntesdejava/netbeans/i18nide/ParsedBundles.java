@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bundles kept parsed in memory by a long running process. A bundle is
+ * parsed again when its size or last modified time changed. Safe for use by
+ * several threads.
+ */
+public class ParsedBundles {
+
+    private final RunMetrics metrics;
+    private final Map<Path, Parsed> parsed = new ConcurrentHashMap<>();
+    private final ThreadLocal<PropertiesParser> parsers = ThreadLocal.withInitial(PropertiesParser::new);
+
+    public ParsedBundles(RunMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the properties of the bundle, in file order; not modifiable
+     */
+    public Map<String, String> get(Path file) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        Parsed p = parsed.get(file);
+        if (p != null && p.size == attrs.size() && p.lastModified == lastModified) {
+            return p.properties;
+        }
+        Map<String, String> properties = new LinkedHashMap<>();
+        metrics.add(RunMetrics.Counter.BYTES_READ, parsers.get().parse(file, properties::put));
+        metrics.increment(RunMetrics.Counter.BUNDLES_PARSED);
+        p = new Parsed(attrs.size(), lastModified, Collections.unmodifiableMap(properties));
+        parsed.put(file, p);
+        return p.properties;
+    }
+
+    public int size() {
+        return parsed.size();
+    }
+
+    private static class Parsed {
+
+        private final long size;
+        private final long lastModified;
+        private final Map<String, String> properties;
+
+        Parsed(long size, long lastModified, Map<String, String> properties) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.properties = properties;
+        }
+    }
+
+}
@@ -17,7 +17,6 @@ package com.apuntesdejava.netbeans.i18nide;
 
 import java.lang.reflect.Type;
 import java.nio.file.Path;
-import javax.json.JsonValue;
 import javax.json.bind.serializer.DeserializationContext;
 import javax.json.bind.serializer.JsonbDeserializer;
 import javax.json.stream.JsonParser;
@@ -34,9 +33,11 @@ public class PathDeserializer implements JsonbDeserializer<Path> {
 
     @Override
     public Path deserialize(JsonParser jp, DeserializationContext dc, Type type) {
-        JsonValue value = jp.getValue();
-        LOGGER.debug("value:{}", value);
-        return Path.of(jp.getString());
+        String value = jp.getString();
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("value:{}", value);
+        }
+        return Path.of(value);
     }
 
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fills the keys missing in the {@code Bundle_<lang>.properties} of the
+ * output directory with the translation memory. The memory first learns the
+ * translations already in the output directory, so strings repeated in
+ * several modules are translated once.
+ */
+public class Prefiller {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Prefiller.class);
+
+    private static final int CACHE_SIZE = 10000;
+
+    private final List<String> langs;
+    private final Concurrency concurrency;
+    private final RunMetrics metrics;
+    private final Map<String, TranslationMemory> memories = new LinkedHashMap<>();
+    private final ThreadLocal<PropertiesParser> parsers = ThreadLocal.withInitial(PropertiesParser::new);
+
+    public Prefiller(List<String> langs, Concurrency concurrency, Path memoryDir, RunMetrics metrics) throws IOException {
+        this.langs = langs;
+        this.concurrency = concurrency;
+        this.metrics = metrics;
+        for (String lang : langs) {
+            memories.put(lang, TranslationMemory.load(memoryDir.resolve(lang + ".tm"), CACHE_SIZE));
+        }
+    }
+
+    /**
+     * Adds to the memory every translated key of the entries. The entries are
+     * parsed in parallel but learned in order, so when a source string has
+     * several translations the last one wins.
+     */
+    public void learn(List<EntryLocalization> entries) {
+        run(entries, this::learn, (learned) -> learned.forEach((lang, translations)
+                -> translations.forEach(memories.get(lang)::put)));
+    }
+
+    private Map<String, Map<String, String>> learn(EntryLocalization entry) {
+        Map<String, Map<String, String>> learned = new LinkedHashMap<>();
+        for (Path bundle : bundles(entry)) {
+            try {
+                Map<String, String> source = parse(bundle);
+                for (String lang : langs) {
+                    Path translation = translation(bundle, lang);
+                    if (Files.exists(translation)) {
+                        Map<String, String> translated = parse(translation);
+                        Map<String, String> translations = learned.computeIfAbsent(lang, (l) -> new LinkedHashMap<>());
+                        source.forEach((key, value) -> {
+                            String t = translated.get(key);
+                            if (t != null && !t.equals(value) && !value.trim().isEmpty()) {
+                                translations.put(value, t);
+                            }
+                        });
+                    }
+                }
+            } catch (IOException | IllegalArgumentException ex) {
+                LOGGER.error("{}: {}", bundle, ex.getMessage());
+            }
+        }
+        return learned;
+    }
+
+    /**
+     * Appends to the localized bundles the missing keys found in the memory.
+     */
+    public void prefill(List<EntryLocalization> entries) {
+        run(entries, this::prefill, (filled) -> {
+        });
+    }
+
+    private Void prefill(EntryLocalization entry) {
+        for (Path bundle : bundles(entry)) {
+            try {
+                Map<String, String> source = parse(bundle);
+                for (String lang : langs) {
+                    Path translation = translation(bundle, lang);
+                    Map<String, String> translated = Files.exists(translation) ? parse(translation) : Collections.emptyMap();
+                    TranslationMemory memory = memories.get(lang);
+                    StringBuilder lines = new StringBuilder();
+                    int filled = 0;
+                    for (Map.Entry<String, String> e : source.entrySet()) {
+                        if (translated.containsKey(e.getKey()) || e.getValue().trim().isEmpty()) {
+                            continue;
+                        }
+                        String t = memory.get(e.getValue());
+                        if (t != null) {
+                            lines.append(PropertiesParser.escape(e.getKey(), true)).append('=')
+                                    .append(PropertiesParser.escape(t, false)).append('\n');
+                            filled++;
+                        }
+                    }
+                    if (filled > 0) {
+                        append(translation, lines);
+                        metrics.add(RunMetrics.Counter.KEYS_PREFILLED, filled);
+                        LOGGER.debug("{}: {} claves", translation, filled);
+                    }
+                }
+            } catch (IOException | IllegalArgumentException ex) {
+                LOGGER.error("{}: {}", bundle, ex.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the learned translations to the memory files.
+     */
+    public void save() throws IOException {
+        for (Map.Entry<String, TranslationMemory> e : memories.entrySet()) {
+            TranslationMemory memory = e.getValue();
+            LOGGER.info("[{}] memoria:{} aprendidas:{}", e.getKey(), memory.size(), memory.added());
+            memory.save();
+        }
+    }
+
+    private <T> void run(List<EntryLocalization> entries, Task<T> task, Consumer<T> consumer) {
+        ExecutorService executor = concurrency.newExecutor();
+        try {
+            List<Future<T>> futures = new ArrayList<>(entries.size());
+            entries.forEach((entry) -> futures.add(executor.submit((Callable<T>) () -> task.run(entry))));
+            for (Future<T> future : futures) {
+                try {
+                    consumer.accept(future.get());
+                } catch (ExecutionException ex) {
+                    LOGGER.error(ex.getMessage(), ex.getCause());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.error(ex.getMessage(), ex);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<Path> bundles(EntryLocalization entry) {
+        return entry.getBundleOutputPath() == null ? Collections.emptyList() : entry.getBundleOutputPath();
+    }
+
+    private static Path translation(Path bundle, String lang) {
+        return bundle.resolveSibling("Bundle_" + lang + ".properties");
+    }
+
+    private Map<String, String> parse(Path file) throws IOException {
+        Map<String, String> properties = new LinkedHashMap<>();
+        metrics.add(RunMetrics.Counter.BYTES_READ, parsers.get().parse(file, properties::put));
+        metrics.increment(RunMetrics.Counter.BUNDLES_PARSED);
+        return properties;
+    }
+
+    /**
+     * Appends the lines, starting on a new line when the file does not end
+     * with one.
+     */
+    private void append(Path file, StringBuilder lines) throws IOException {
+        if (Files.exists(file) && Files.size(file) > 0) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                byte last = ZipCentralDirectory.readFully(channel, channel.size() - 1, 1).get(0);
+                if (last != '\n' && last != '\r') {
+                    lines.insert(0, '\n');
+                }
+            }
+        }
+        byte[] bytes = lines.toString().getBytes(StandardCharsets.ISO_8859_1);
+        try (OutputStream os = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            os.write(bytes);
+        }
+        metrics.add(RunMetrics.Counter.BYTES_WRITTEN, bytes.length);
+    }
+
+    @FunctionalInterface
+    private interface Task<T> {
+
+        T run(EntryLocalization entry) throws IOException;
+    }
+
+}
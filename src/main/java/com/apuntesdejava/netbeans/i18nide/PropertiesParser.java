@@ -0,0 +1,284 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads {@code .properties} files with the same rules as
+ * {@link java.util.Properties#load(java.io.InputStream)}: ISO-8859-1 bytes,
+ * {@code \}{@code uXXXX} escapes, continuation lines and {@code #} or
+ * {@code !} comments.
+ *
+ * <p>
+ * The file and the logical lines are kept in buffers reused between files,
+ * so only the keys and values are allocated. An instance is not thread-safe.
+ */
+public class PropertiesParser {
+
+    @FunctionalInterface
+    public interface Handler {
+
+        void property(String key, String value);
+    }
+
+    private ByteBuffer bytes = ByteBuffer.allocate(Streams.BUFFER_SIZE);
+    private char[] line = new char[1024];
+    private char[] converted = new char[1024];
+    private int lineLength;
+
+    /**
+     * Parses the file and returns its properties in file order.
+     */
+    public Map<String, String> parse(Path file) throws IOException {
+        Map<String, String> properties = new LinkedHashMap<>();
+        parse(file, properties::put);
+        return properties;
+    }
+
+    /**
+     * @return the size of the file
+     */
+    public long parse(Path file, Handler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Archivo demasiado grande: " + file);
+            }
+            if (bytes.capacity() < size) {
+                bytes = ByteBuffer.allocate((int) size);
+            }
+            bytes.clear().limit((int) size);
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes) < 0) {
+                    break;
+                }
+            }
+            bytes.flip();
+            parse(bytes, handler);
+            return size;
+        }
+    }
+
+    public void parse(ByteBuffer buffer, Handler handler) {
+        ByteBuffer in = buffer.duplicate();
+        while (readLine(in)) {
+            int keyEnd = 0;
+            int valueStart = lineLength;
+            boolean hasSeparator = false;
+            boolean precedingBackslash = false;
+            while (keyEnd < lineLength) {
+                char c = line[keyEnd];
+                if ((c == '=' || c == ':') && !precedingBackslash) {
+                    valueStart = keyEnd + 1;
+                    hasSeparator = true;
+                    break;
+                } else if (isWhitespace(c) && !precedingBackslash) {
+                    valueStart = keyEnd + 1;
+                    break;
+                }
+                precedingBackslash = c == '\\' && !precedingBackslash;
+                keyEnd++;
+            }
+            while (valueStart < lineLength) {
+                char c = line[valueStart];
+                if (!isWhitespace(c)) {
+                    if (!hasSeparator && (c == '=' || c == ':')) {
+                        hasSeparator = true;
+                    } else {
+                        break;
+                    }
+                }
+                valueStart++;
+            }
+            String key = convert(0, keyEnd);
+            handler.property(key, convert(valueStart, lineLength - valueStart));
+        }
+    }
+
+    /**
+     * Reads the next logical line into {@link #line}: skips blank lines and
+     * comments, joins continuation lines and drops their leading whitespace.
+     * Escapes are kept, except the backslash of a continuation.
+     */
+    private boolean readLine(ByteBuffer in) {
+        lineLength = 0;
+        boolean skipWhitespace = true;
+        boolean isComment = false;
+        boolean isNewLine = true;
+        boolean appendedLineBegin = false;
+        boolean precedingBackslash = false;
+        boolean skipLF = false;
+        while (true) {
+            if (!in.hasRemaining()) {
+                if (isComment || lineLength == 0) {
+                    lineLength = 0;
+                    return false;
+                }
+                if (precedingBackslash) {
+                    lineLength--;
+                }
+                return true;
+            }
+            char c = (char) (in.get() & 0xFF);
+            if (skipLF) {
+                skipLF = false;
+                if (c == '\n') {
+                    continue;
+                }
+            }
+            if (skipWhitespace) {
+                if (isWhitespace(c) || (!appendedLineBegin && (c == '\r' || c == '\n'))) {
+                    continue;
+                }
+                skipWhitespace = false;
+                appendedLineBegin = false;
+            }
+            if (isNewLine) {
+                isNewLine = false;
+                if (c == '#' || c == '!') {
+                    isComment = true;
+                    continue;
+                }
+            }
+            if (c != '\n' && c != '\r') {
+                if (!isComment) {
+                    append(c);
+                    precedingBackslash = c == '\\' && !precedingBackslash;
+                }
+                continue;
+            }
+            if (c == '\r') {
+                skipLF = true;
+            }
+            if (isComment || lineLength == 0) {
+                isComment = false;
+                isNewLine = true;
+                skipWhitespace = true;
+                lineLength = 0;
+                continue;
+            }
+            if (precedingBackslash) {
+                lineLength--;
+                skipWhitespace = true;
+                appendedLineBegin = true;
+                precedingBackslash = false;
+                continue;
+            }
+            return true;
+        }
+    }
+
+    private void append(char c) {
+        if (lineLength == line.length) {
+            char[] grown = new char[line.length * 2];
+            System.arraycopy(line, 0, grown, 0, lineLength);
+            line = grown;
+        }
+        line[lineLength++] = c;
+    }
+
+    private String convert(int offset, int length) {
+        if (converted.length < length) {
+            converted = new char[Math.max(length, converted.length * 2)];
+        }
+        int end = offset + length;
+        int out = 0;
+        while (offset < end) {
+            char c = line[offset++];
+            if (c == '\\' && offset < end) {
+                c = line[offset++];
+                if (c == 'u') {
+                    if (offset + 4 > end) {
+                        throw new IllegalArgumentException("Secuencia \\uXXXX incompleta");
+                    }
+                    int value = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(line[offset++], 16);
+                        if (digit < 0) {
+                            throw new IllegalArgumentException("Secuencia \\uXXXX invalida");
+                        }
+                        value = (value << 4) | digit;
+                    }
+                    c = (char) value;
+                } else if (c == 't') {
+                    c = '\t';
+                } else if (c == 'r') {
+                    c = '\r';
+                } else if (c == 'n') {
+                    c = '\n';
+                } else if (c == 'f') {
+                    c = '\f';
+                }
+            }
+            converted[out++] = c;
+        }
+        return new String(converted, 0, out);
+    }
+
+    /**
+     * Escapes a key or a value so it can be written to an ISO-8859-1
+     * {@code .properties} file and read back unchanged.
+     */
+    public static String escape(String text, boolean key) {
+        StringBuilder sb = new StringBuilder(text.length() + 16);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case ' ':
+                    sb.append(i == 0 || key ? "\\ " : " ");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\f':
+                    sb.append("\\f");
+                    break;
+                case '\\':
+                case '=':
+                case ':':
+                case '#':
+                case '!':
+                    sb.append('\\').append(c);
+                    break;
+                default:
+                    if (c < 0x20 || c > 0x7E) {
+                        sb.append(String.format("\\u%04X", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\f';
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and per-phase wall time of one run of the tool. Counters can be
+ * updated from any thread; the getters are the run report written as JSON
+ * at the end of every command.
+ */
+public class RunMetrics {
+
+    public enum Counter {
+        DIRECTORIES_WALKED("directoriesWalked"),
+        JARS_OPENED("jarsOpened"),
+        ENTRIES_SCANNED("entriesScanned"),
+        BYTES_READ("bytesRead"),
+        BYTES_WRITTEN("bytesWritten"),
+        BUNDLES_EXTRACTED("bundlesExtracted"),
+        BUNDLES_PARSED("bundlesParsed"),
+        KEYS_PREFILLED("keysPrefilled"),
+        JARS_REWRITTEN("jarsRewritten"),
+        LOCALE_JARS_WRITTEN("localeJarsWritten"),
+        CACHE_HITS("cacheHits"),
+        CACHE_MISSES("cacheMisses");
+
+        private final String key;
+
+        Counter(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    private final String command;
+    private final Instant started = Instant.now();
+    private final long start = System.nanoTime();
+    private final Map<Counter, LongAdder> counters = new EnumMap<>(Counter.class);
+    private final Map<String, Long> phases = Collections.synchronizedMap(new LinkedHashMap<>());
+    private long totalMillis;
+
+    public RunMetrics(String command) {
+        this.command = command;
+        for (Counter counter : Counter.values()) {
+            counters.put(counter, new LongAdder());
+        }
+    }
+
+    public void increment(Counter counter) {
+        counters.get(counter).increment();
+    }
+
+    public void add(Counter counter, long value) {
+        counters.get(counter).add(value);
+    }
+
+    public long get(Counter counter) {
+        return counters.get(counter).sum();
+    }
+
+    /**
+     * Starts timing a phase; the time is recorded when the phase is closed.
+     * A phase that runs more than once accumulates its time.
+     */
+    public Phase phase(String name) {
+        return new Phase(name);
+    }
+
+    public void finish() {
+        totalMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public String getStarted() {
+        return started.toString();
+    }
+
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    public Map<String, Long> getCounters() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        counters.forEach((counter, value) -> values.put(counter.getKey(), value.sum()));
+        return values;
+    }
+
+    public Map<String, Long> getPhases() {
+        synchronized (phases) {
+            return new LinkedHashMap<>(phases);
+        }
+    }
+
+    public final class Phase implements AutoCloseable {
+
+        private final String name;
+        private final long phaseStart = System.nanoTime();
+
+        private Phase(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void close() {
+            phases.merge(name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - phaseStart), Long::sum);
+        }
+    }
+
+}
@@ -0,0 +1,506 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Inverted index of the words in the keys and values of every extracted
+ * {@code Bundle.properties}. The layout, big-endian, is:
+ *
+ * <pre>
+ * int     magic "I18F"
+ * short   version
+ * int     JAR count, then per JAR: string source path
+ * int     bundle count, then per bundle: int JAR, string output path
+ * int     record count, then per record: int offset of the record
+ * int     term count, then per term, sorted: int offset of the term
+ * records int bundle, string key, string value
+ * terms   string term, int record count, int records (ascending)
+ * </pre>
+ *
+ * where a string is an int length and its UTF-8 bytes. Terms are lowercase
+ * words; keys are indexed as a query splits them and also at their camel
+ * case humps, so {@code CTL_OpenProject} is found by its name and by
+ * {@code project}. The mnemonic marks
+ * ({@code &}) are ignored.
+ * <p>
+ * The index is a single file: an update only saves the parsing of the
+ * bundles that did not change, the whole file is still read and written.
+ */
+public class SearchIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchIndex.class);
+
+    private static final int MAGIC = 0x49313846;
+    private static final short VERSION = 2;
+
+    private final ByteBuffer buffer;
+    private final String[] jars;
+    private final int[] bundleJars;
+    private final String[] bundles;
+    private final int recordTable;
+    private final int recordCount;
+    private final int termTable;
+    private final int termCount;
+
+    private SearchIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.remaining() < 6 || buffer.getInt() != MAGIC) {
+            throw new IOException("No es un indice de busqueda");
+        }
+        short version = buffer.getShort();
+        if (version != VERSION) {
+            throw new IOException("Version de indice no soportada: " + version);
+        }
+        jars = new String[buffer.getInt()];
+        for (int i = 0; i < jars.length; i++) {
+            jars[i] = next(buffer);
+        }
+        bundleJars = new int[buffer.getInt()];
+        bundles = new String[bundleJars.length];
+        for (int i = 0; i < bundles.length; i++) {
+            bundleJars[i] = buffer.getInt();
+            bundles[i] = next(buffer);
+        }
+        recordCount = buffer.getInt();
+        recordTable = buffer.position();
+        buffer.position(recordTable + recordCount * 4);
+        termCount = buffer.getInt();
+        termTable = buffer.position();
+    }
+
+    private static SearchIndex of(ByteBuffer buffer) throws IOException {
+        try {
+            return new SearchIndex(buffer);
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException ex) {
+            throw new IOException("Indice de busqueda truncado", ex);
+        }
+    }
+
+    /**
+     * Maps the index. The file must not be replaced while it is in use.
+     */
+    public static SearchIndex map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return of(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Reads the index into the heap, so the file can be rewritten afterwards.
+     */
+    public static SearchIndex read(Path file) throws IOException {
+        return of(ByteBuffer.wrap(Files.readAllBytes(file)));
+    }
+
+    public int size() {
+        return recordCount;
+    }
+
+    /**
+     * Finds the keys whose key or value has every word of the query; the
+     * last word may be the start of a word, so results show while it is being
+     * typed.
+     *
+     * @param jars the source JARs searched
+     * @return at most {@code limit} matches, in the order of the index
+     */
+    public List<Match> find(String query, Predicate<Path> jars, int limit) {
+        List<String> words = words(query, false);
+        List<Match> matches = new ArrayList<>();
+        if (words.isEmpty()) {
+            return matches;
+        }
+        BitSet found = null;
+        for (int i = 0; i < words.size(); i++) {
+            BitSet records = records(words.get(i), i == words.size() - 1);
+            if (found == null) {
+                found = records;
+            } else {
+                found.and(records);
+            }
+            if (found.isEmpty()) {
+                return matches;
+            }
+        }
+        boolean[] searched = new boolean[this.jars.length];
+        for (int i = 0; i < searched.length; i++) {
+            searched[i] = jars.test(Paths.get(this.jars[i]));
+        }
+        for (int record = found.nextSetBit(0); record >= 0 && matches.size() < limit; record = found.nextSetBit(record + 1)) {
+            int offset = buffer.getInt(recordTable + record * 4);
+            if (searched[bundleJars[buffer.getInt(offset)]]) {
+                matches.add(match(record));
+            }
+        }
+        return matches;
+    }
+
+    private BitSet records(String word, boolean prefix) {
+        BitSet records = new BitSet(recordCount);
+        // first term not lower than the word
+        int low = 0;
+        int high = termCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (term(mid).compareTo(word) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < termCount; i++) {
+            int offset = buffer.getInt(termTable + i * 4);
+            String term = string(offset);
+            if (prefix ? !term.startsWith(word) : !term.equals(word)) {
+                break;
+            }
+            int postings = offset + 4 + buffer.getInt(offset);
+            int count = buffer.getInt(postings);
+            for (int j = 0; j < count; j++) {
+                records.set(buffer.getInt(postings + 4 + j * 4));
+            }
+        }
+        return records;
+    }
+
+    private String term(int index) {
+        return string(buffer.getInt(termTable + index * 4));
+    }
+
+    private Match match(int record) {
+        ByteBuffer b = buffer.duplicate();
+        b.position(buffer.getInt(recordTable + record * 4));
+        int bundle = b.getInt();
+        String key = next(b);
+        String value = next(b);
+        return new Match(jars[bundleJars[bundle]], bundles[bundle], key, value);
+    }
+
+    private String string(int offset) {
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset);
+        return next(b);
+    }
+
+    private static String next(ByteBuffer b) {
+        byte[] bytes = new byte[b.getInt()];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The records of every JAR, keyed by its source path, in index order.
+     */
+    private Map<String, List<Record>> records() {
+        Map<String, List<Record>> records = new LinkedHashMap<>();
+        for (int i = 0; i < recordCount; i++) {
+            Match match = match(i);
+            records.computeIfAbsent(match.jar, (jar) -> new ArrayList<>()).add(new Record(match.bundle, match.key, match.value));
+        }
+        return records;
+    }
+
+    /**
+     * Splits the text in lowercase words. Keys are also split where a
+     * lowercase letter is followed by an uppercase one.
+     */
+    static List<String> words(String text, boolean key) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        char previous = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '&') {
+                continue;
+            }
+            if (!Character.isLetterOrDigit(c) || (key && Character.isUpperCase(c) && Character.isLowerCase(previous))) {
+                if (word.length() > 0) {
+                    words.add(word.toString().toLowerCase(Locale.ROOT));
+                    word.setLength(0);
+                }
+            }
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+            }
+            previous = c;
+        }
+        if (word.length() > 0) {
+            words.add(word.toString().toLowerCase(Locale.ROOT));
+        }
+        return words;
+    }
+
+    /**
+     * Writes the index of the entries. The bundles of the entries in
+     * {@code extracted}, and of the entries missing from the previous index,
+     * are parsed, one task per JAR; the others are copied from the previous
+     * index, and the JARs no longer in the entries are dropped. Only the
+     * parsing is saved: the previous index is read whole and every record is
+     * written again, so the I/O is that of a full rebuild.
+     */
+    public static void update(Path file, List<EntryLocalization> entries, Collection<EntryLocalization> extracted, Concurrency concurrency, RunMetrics metrics) throws IOException {
+        Map<String, List<Record>> previous = new LinkedHashMap<>();
+        if (Files.exists(file)) {
+            try {
+                previous = read(file).records();
+            } catch (IOException | RuntimeException ex) {
+                LOGGER.warn("{}: {}, se vuelve a crear", file, ex.getMessage());
+            }
+        }
+        Set<Path> parse = new HashSet<>();
+        extracted.forEach((entry) -> parse.add(entry.getSourcePath()));
+        for (EntryLocalization entry : entries) {
+            if (!previous.containsKey(entry.getSourcePath().toString())) {
+                parse.add(entry.getSourcePath());
+            }
+        }
+        Map<String, List<Record>> records = new LinkedHashMap<>();
+        ThreadLocal<PropertiesParser> parsers = ThreadLocal.withInitial(PropertiesParser::new);
+        ExecutorService executor = concurrency.newExecutor();
+        try {
+            List<Future<List<Record>>> futures = new ArrayList<>(entries.size());
+            for (EntryLocalization entry : entries) {
+                futures.add(parse.contains(entry.getSourcePath()) ? executor.submit(() -> parse(entry, parsers.get(), metrics)) : null);
+            }
+            for (int i = 0; i < entries.size(); i++) {
+                String jar = entries.get(i).getSourcePath().toString();
+                Future<List<Record>> future = futures.get(i);
+                try {
+                    records.put(jar, future == null ? previous.get(jar) : future.get());
+                } catch (ExecutionException ex) {
+                    LOGGER.error(ex.getCause().getMessage(), ex.getCause());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.error(ex.getMessage(), ex);
+            return;
+        } finally {
+            executor.shutdownNow();
+        }
+        write(records, file);
+        LOGGER.info("Indice de busqueda: {} claves, {} JARs leidos", records.values().stream().mapToInt(List::size).sum(), parse.size());
+    }
+
+    private static List<Record> parse(EntryLocalization entry, PropertiesParser parser, RunMetrics metrics) {
+        List<Record> records = new ArrayList<>();
+        if (entry.getBundleOutputPath() == null) {
+            return records;
+        }
+        for (Path bundle : entry.getBundleOutputPath()) {
+            try {
+                String path = bundle.toString();
+                metrics.add(RunMetrics.Counter.BYTES_READ, parser.parse(bundle, (key, value) -> records.add(new Record(path, key, value))));
+                metrics.increment(RunMetrics.Counter.BUNDLES_PARSED);
+            } catch (IOException | IllegalArgumentException ex) {
+                LOGGER.error("{}: {}", bundle, ex.getMessage());
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Writes the index to a temporary file and moves it over {@code file}.
+     */
+    private static void write(Map<String, List<Record>> records, Path file) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        DataOutputStream h = new DataOutputStream(head);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        DataOutputStream d = new DataOutputStream(data);
+        List<String> jars = new ArrayList<>(records.keySet());
+        Map<String, Integer> bundles = new LinkedHashMap<>();
+        List<Integer> bundleJars = new ArrayList<>();
+        List<Integer> recordOffsets = new ArrayList<>();
+        Map<String, Postings> terms = new TreeMap<>();
+        for (int jar = 0; jar < jars.size(); jar++) {
+            for (Record record : records.get(jars.get(jar))) {
+                Integer bundle = bundles.get(record.bundle);
+                if (bundle == null) {
+                    bundle = bundles.size();
+                    bundles.put(record.bundle, bundle);
+                    bundleJars.add(jar);
+                }
+                int id = recordOffsets.size();
+                recordOffsets.add(data.size());
+                d.writeInt(bundle);
+                writeString(d, record.key);
+                writeString(d, record.value);
+                for (String word : words(record.key, true)) {
+                    terms.computeIfAbsent(word, (w) -> new Postings()).add(id);
+                }
+                // the words of the key as a query splits them, so the key is found by its name
+                for (String word : words(record.key, false)) {
+                    terms.computeIfAbsent(word, (w) -> new Postings()).add(id);
+                }
+                for (String word : words(record.value, false)) {
+                    terms.computeIfAbsent(word, (w) -> new Postings()).add(id);
+                }
+            }
+        }
+        List<Integer> termOffsets = new ArrayList<>(terms.size());
+        for (Map.Entry<String, Postings> term : terms.entrySet()) {
+            termOffsets.add(data.size());
+            writeString(d, term.getKey());
+            Postings postings = term.getValue();
+            d.writeInt(postings.size);
+            for (int i = 0; i < postings.size; i++) {
+                d.writeInt(postings.ids[i]);
+            }
+        }
+
+        h.writeInt(MAGIC);
+        h.writeShort(VERSION);
+        h.writeInt(jars.size());
+        for (String jar : jars) {
+            writeString(h, jar);
+        }
+        h.writeInt(bundles.size());
+        int b = 0;
+        for (String bundle : bundles.keySet()) {
+            h.writeInt(bundleJars.get(b++));
+            writeString(h, bundle);
+        }
+        int dataStart = head.size() + 4 + recordOffsets.size() * 4 + 4 + termOffsets.size() * 4;
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(temp); DataOutputStream index = new DataOutputStream(new BufferedOutputStream(os))) {
+                head.writeTo(index);
+                index.writeInt(recordOffsets.size());
+                for (int offset : recordOffsets) {
+                    index.writeInt(dataStart + offset);
+                }
+                index.writeInt(termOffsets.size());
+                for (int offset : termOffsets) {
+                    index.writeInt(dataStart + offset);
+                }
+                data.writeTo(index);
+            }
+            Files.move(temp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static class Match {
+
+        private final String jar;
+        private final String bundle;
+        private final String key;
+        private final String value;
+
+        Match(String jar, String bundle, String key, String value) {
+            this.jar = jar;
+            this.bundle = bundle;
+            this.key = key;
+            this.value = value;
+        }
+
+        public Path getJar() {
+            return Paths.get(jar);
+        }
+
+        public Path getBundle() {
+            return Paths.get(bundle);
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return bundle + " " + key + "=" + value + " (" + jar + ")";
+        }
+    }
+
+    private static class Record {
+
+        private final String bundle;
+        private final String key;
+        private final String value;
+
+        Record(String bundle, String key, String value) {
+            this.bundle = bundle;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Ascending record ids of a term, without repetitions.
+     */
+    private static class Postings {
+
+        private int[] ids = new int[4];
+        private int size;
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+
+}
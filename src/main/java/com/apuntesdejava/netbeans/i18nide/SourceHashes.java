@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * The source values each translation was made from, kept next to the
+ * translation as {@code Bundle_<lang>.properties.source}: one line per
+ * translated key, with the hash of its source value and the hash of its
+ * translation. A key whose source value no longer has the recorded hash,
+ * while its translation still has it, is stale: the original changed after
+ * it was translated.
+ * <p>
+ * The file is written when the translations are stored. The hash of the
+ * source value of a key is only taken again when its translation changed,
+ * so storing over a newer original does not hide that the translation is
+ * stale.
+ */
+class SourceHashes {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SourceHashes.class);
+
+    static final String SUFFIX = ".source";
+    private static final String SOURCE = "Bundle.properties";
+    private static final String SEPARATOR = " ";
+
+    private SourceHashes() {
+    }
+
+    static Path file(Path translation) {
+        return translation.resolveSibling(translation.getFileName() + SUFFIX);
+    }
+
+    static String hash(String value) {
+        return Long.toHexString(TranslationMemory.hash(value));
+    }
+
+    /**
+     * @return whether the translation of the key was made from another
+     * source value
+     */
+    static boolean isStale(String recorded, String source, String translation) {
+        if (recorded == null) {
+            return false;
+        }
+        int separator = recorded.indexOf(SEPARATOR);
+        return separator > 0
+                && !recorded.substring(0, separator).equals(hash(source))
+                && recorded.substring(separator + 1).equals(hash(translation));
+    }
+
+    /**
+     * Records the source values of the stored translations. The store
+     * already succeeded, so a file that can not be written is only logged.
+     */
+    static void record(Collection<Path> translations) {
+        PropertiesParser parser = new PropertiesParser();
+        for (Path translation : translations) {
+            try {
+                record(translation, parser);
+            } catch (IOException | IllegalArgumentException ex) {
+                LOGGER.warn("{}: {}", file(translation), ex.getMessage());
+            }
+        }
+    }
+
+    private static void record(Path translation, PropertiesParser parser) throws IOException {
+        Map<String, String> source = parser.parse(translation.resolveSibling(SOURCE));
+        Map<String, String> translated = parser.parse(translation);
+        Path file = file(translation);
+        Map<String, String> previous = Files.exists(file) ? parser.parse(file) : new LinkedHashMap<>();
+        StringBuilder content = new StringBuilder();
+        source.forEach((key, value) -> {
+            String translatedValue = translated.get(key);
+            if (translatedValue == null) {
+                return;
+            }
+            String translationHash = hash(translatedValue);
+            String recorded = previous.get(key);
+            if (recorded == null || !recorded.endsWith(SEPARATOR + translationHash)) {
+                recorded = hash(value) + SEPARATOR + translationHash;
+            }
+            content.append(PropertiesParser.escape(key, true)).append('=').append(recorded).append('\n');
+        });
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.write(temp, content.toString().getBytes(StandardCharsets.ISO_8859_1));
+            Files.move(temp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Write-ahead log of a store, one line per step, forced to disk before the
+ * step takes effect:
+ *
+ * <pre>
+ * BEGIN     date
+ * PREPARED  jar  temp  backup  NEW|KEPT    the new JAR is complete in temp, the old one is in backup,
+ *                                          which this step created or found already there
+ * DONE      jar                            temp was moved over jar
+ * END
+ * </pre>
+ *
+ * A journal without END belongs to an interrupted store. The journal of the
+ * last store is kept, so it can be rolled back. The stores made with the
+ * same {@link Storer}, such as the batches of a watch session, share the
+ * date of their backups and append to the same journal, so all of them are
+ * rolled back together; a store that follows an interrupted one takes its
+ * date too. A line cut by a crash is ignored.
+ */
+public class StoreJournal implements Closeable {
+
+    public static final String FILENAME = "store-journal.log";
+
+    private static final String BEGIN = "BEGIN";
+    private static final String PREPARED = "PREPARED";
+    private static final String DONE = "DONE";
+    private static final String END = "END";
+    private static final String NEW = "NEW";
+    private static final String KEPT = "KEPT";
+    private static final String SEPARATOR = "\t";
+
+    private final Path file;
+    private final Map<Path, Step> steps = new LinkedHashMap<>();
+    private final Set<Path> done = new HashSet<>();
+    private String date;
+    private boolean started;
+    private boolean ended;
+    private FileChannel channel;
+
+    private StoreJournal(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the journal left by the last store, if any.
+     */
+    public static StoreJournal open(Path file) throws IOException {
+        StoreJournal journal = new StoreJournal(file);
+        if (Files.exists(file)) {
+            String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            int end = content.lastIndexOf('\n');
+            for (String line : content.substring(0, end + 1).split("\n")) {
+                journal.replay(line.split(SEPARATOR));
+            }
+        }
+        return journal;
+    }
+
+    private void replay(String[] fields) {
+        switch (fields[0]) {
+            case BEGIN:
+                started = true;
+                ended = false;
+                date = fields.length == 2 ? fields[1] : null;
+                break;
+            case PREPARED:
+                // journals written before the backup was recorded have no fifth field
+                if (fields.length == 4 || fields.length == 5) {
+                    put(Paths.get(fields[1]), Paths.get(fields[2]), Paths.get(fields[3]), fields.length == 4 || NEW.equals(fields[4]));
+                }
+                break;
+            case DONE:
+                if (fields.length == 2) {
+                    done.add(Paths.get(fields[1]));
+                }
+                break;
+            case END:
+                ended = true;
+                break;
+            default:
+        }
+    }
+
+    public boolean isInterrupted() {
+        return started && !ended;
+    }
+
+    public boolean isEmpty() {
+        return !started;
+    }
+
+    /**
+     * A JAR prepared again by a later batch keeps what the earlier ones did:
+     * whether its backup was created in this journal, and whether it was
+     * already replaced. A move finished by {@link Storer#resume} or cut
+     * before its DONE line is not recorded, so a JAR prepared again with the
+     * same backup is taken as replaced: restoring that backup is always safe.
+     */
+    private void put(Path jar, Path temp, Path backup, boolean backupCreated) {
+        Step previous = steps.get(jar);
+        boolean created = backupCreated || (previous != null && previous.backupCreated);
+        boolean replaced = previous != null && (previous.replaced || done.contains(jar) || backup.equals(previous.backup));
+        done.remove(jar);
+        steps.put(jar, new Step(jar, temp, backup, created, replaced));
+    }
+
+    /**
+     * @return the JARs prepared by the last store, in order
+     */
+    public List<Step> getSteps() {
+        return new ArrayList<>(steps.values());
+    }
+
+    /**
+     * @return true when the last preparation of the JAR was moved into place
+     */
+    public boolean isDone(Step step) {
+        return done.contains(step.getJar());
+    }
+
+    /**
+     * @return the date of the backups of the last store, or {@code null}
+     */
+    public String getDate() {
+        return date;
+    }
+
+    /**
+     * Starts the journal of a new store. A store with the date of the last
+     * one is made by the same {@link Storer}, and is appended to its journal;
+     * so is the store that follows an interrupted one, since only its journal
+     * knows the backups of the original JARs. Any other discards the previous
+     * journal.
+     */
+    public synchronized void begin(String date) throws IOException {
+        close();
+        if (started && (!ended || date.equals(this.date)) && Files.exists(file)) {
+            channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } else {
+            steps.clear();
+            done.clear();
+            channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        this.date = date;
+        ended = false;
+        started = true;
+        append(BEGIN, date);
+    }
+
+    /**
+     * @param backupCreated whether the backup was created for this step, or
+     * was already there
+     */
+    public synchronized void prepared(Path jar, Path temp, Path backup, boolean backupCreated) throws IOException {
+        append(PREPARED, jar.toString(), temp.toString(), backup.toString(), backupCreated ? NEW : KEPT);
+        put(jar, temp, backup, backupCreated);
+    }
+
+    public synchronized void done(Path jar) throws IOException {
+        append(DONE, jar.toString());
+        done.add(jar);
+    }
+
+    public synchronized void end() throws IOException {
+        append(END);
+        ended = true;
+        close();
+    }
+
+    /**
+     * Removes the journal, once the store was rolled back.
+     */
+    public synchronized void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+        steps.clear();
+        done.clear();
+        date = null;
+        started = false;
+        ended = false;
+    }
+
+    private void append(String... fields) throws IOException {
+        ByteBuffer line = ByteBuffer.wrap((String.join(SEPARATOR, fields) + '\n').getBytes(StandardCharsets.UTF_8));
+        while (line.hasRemaining()) {
+            channel.write(line);
+        }
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    public static class Step {
+
+        private final Path jar;
+        private final Path temp;
+        private final Path backup;
+        private final boolean backupCreated;
+        private final boolean replaced;
+
+        Step(Path jar, Path temp, Path backup, boolean backupCreated, boolean replaced) {
+            this.jar = jar;
+            this.temp = temp;
+            this.backup = backup;
+            this.backupCreated = backupCreated;
+            this.replaced = replaced;
+        }
+
+        public Path getJar() {
+            return jar;
+        }
+
+        public Path getTemp() {
+            return temp;
+        }
+
+        public Path getBackup() {
+            return backup;
+        }
+
+        /**
+         * @return true when the backup was created by this journal; one that
+         * was already there is not deleted by a rollback
+         */
+        public boolean isBackupCreated() {
+            return backupCreated;
+        }
+
+        /**
+         * @return true when an earlier batch of this journal moved, or may
+         * have moved, a new JAR into place, so the backup holds the only
+         * original copy
+         */
+        public boolean isReplaced() {
+            return replaced;
+        }
+
+    }
+
+}
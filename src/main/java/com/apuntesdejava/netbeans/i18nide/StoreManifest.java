@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Records what the last store wrote in every JAR: the fingerprint of the
+ * rewritten JAR and the SHA-256 of each translated bundle, keyed by entry
+ * name. It is saved next to structure.idx.
+ */
+public class StoreManifest {
+
+    private Map<String, StoredJar> jars = new TreeMap<>();
+
+    public StoreManifest() {
+    }
+
+    public Map<String, StoredJar> getJars() {
+        return jars;
+    }
+
+    public void setJars(Map<String, StoredJar> jars) {
+        this.jars = jars;
+    }
+
+    /**
+     * Tells if the JAR still is the one written by the last store, with the
+     * same translations.
+     */
+    public boolean isStored(String jar, JarFingerprint fingerprint, Map<String, String> bundles) {
+        StoredJar stored = jars.get(jar);
+        return stored != null && fingerprint.matches(stored.getFingerprint()) && Objects.equals(stored.getBundles(), bundles);
+    }
+
+    public void put(String jar, JarFingerprint fingerprint, Map<String, String> bundles) {
+        StoredJar stored = new StoredJar();
+        stored.setFingerprint(fingerprint);
+        stored.setBundles(new TreeMap<>(bundles));
+        jars.put(jar, stored);
+    }
+
+    public static class StoredJar {
+
+        private JarFingerprint fingerprint;
+        private Map<String, String> bundles;
+
+        public StoredJar() {
+        }
+
+        public JarFingerprint getFingerprint() {
+            return fingerprint;
+        }
+
+        public void setFingerprint(JarFingerprint fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        public Map<String, String> getBundles() {
+            return bundles;
+        }
+
+        public void setBundles(Map<String, String> bundles) {
+            this.bundles = bundles;
+        }
+
+    }
+
+}
@@ -4,76 +4,455 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.LinkedHashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
+import java.util.zip.ZipException;
 
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
+/**
+ * Writes the translations into the NetBeans JARs, several JARs at a time.
+ * Every JAR is built in a temporary file next to it, forced to disk and
+ * moved over the original with an atomic move, so a crash leaves either the
+ * old or the new JAR, never a truncated one. The steps are recorded in a
+ * {@link StoreJournal}, so an interrupted store can be resumed or rolled
+ * back.
+ * <p>
+ * The JARs nested in the same NBM are stored together: each one is rebuilt
+ * from its entries in the NBM, and the NBM is rewritten once with all of
+ * them.
+ */
 public class Storer {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Storer.class);
 
+    private static final String TEMP_SUFFIX = ".i18n-tmp";
+
+    private final List<String> bundlesL10n;
+    private final Concurrency concurrency;
+    private final RunMetrics metrics;
+    private String date = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd_HHmmss"));
+
+    /**
+     * The backups of every store made with this instance are named after the
+     * time it was created, so a JAR stored several times keeps the backup of
+     * its first store. After an interrupted store they take its date instead,
+     * so the backups it made, which hold the original JARs, are kept.
+     */
+    public Storer(List<String> bundlesL10n, Concurrency concurrency, RunMetrics metrics) {
+        this.bundlesL10n = bundlesL10n;
+        this.concurrency = concurrency;
+        this.metrics = metrics;
+    }
+
     public static void store(List<EntryLocalization> outputDirs, String bundleL10n) {
-        String date = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd_HHmmss"));
-        outputDirs.forEach((entry) -> {
-            entry.getBundleOutputPath().forEach((out) -> {
-                Path propsDir = out.getParent();
-                Path langProp = Paths.get(propsDir.toString(), bundleL10n).toAbsolutePath();
-                if (Files.exists(langProp)) {
-                    try {
-
-                        LOGGER.info("Agregando {}", langProp);
-                        Path original = entry.getSourcePath();
-                        Path target = entry.getSourcePath();
-                        Path backup = Paths.get(original.getParent().toString(), original.getFileName().toString() + '-' + date);
-                        Files.move(original, backup, REPLACE_EXISTING);
-                        Set<String> names = new LinkedHashSet<>();
-                        try (OutputStream os = new FileOutputStream(target.toFile()); JarOutputStream jos = new JarOutputStream(os); JarFile jarFile = new JarFile(backup.toString())) {
-                            String entryName = StringUtils.substring(StringUtils.substringAfter(langProp.toString(), entry.getOutputPath().toString()), 1);
-                            JarEntry jarEntry = new JarEntry(entryName);
-                            jos.putNextEntry(jarEntry);
-                            byte[] content = Files.readAllBytes(langProp);
-                            jos.write(content);
-                            jos.closeEntry();
-                            names.add(entryName);
-                            jarFile.stream().filter((e) -> !e.isDirectory()).forEach((e) -> {
-                                String $entryName = e.getRealName();
-                                if (!names.contains($entryName))
-                                    try (InputStream is = jarFile.getInputStream(e)) {
-                                        byte[] buffer = is.readAllBytes();
-
-                                        JarEntry $jarEntry = new JarEntry($entryName);
-                                        jos.putNextEntry($jarEntry);
-                                        jos.write(buffer);
-                                        jos.closeEntry();
-                                        names.add($entryName);
-                                    } catch (IOException ex) {
-                                        LOGGER.error(ex.getMessage(), ex);
-                                    }
-                            });
-
-                        } catch (IOException ex) {
-                            LOGGER.error(ex.getMessage(), ex);
+        try (StoreJournal journal = StoreJournal.open(Paths.get(StoreJournal.FILENAME))) {
+            new Storer(Collections.singletonList(bundleL10n), new Concurrency(1), new RunMetrics("store")).store(outputDirs, new StoreManifest(), false, journal);
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Stores the translations of every language and records them in the
+     * manifest. Each JAR is rewritten once with all its languages. When
+     * incremental, the JARs whose translations did not change since the
+     * manifest was written are skipped.
+     *
+     * @return the JARs rewritten
+     */
+    public int store(List<EntryLocalization> outputDirs, StoreManifest manifest, boolean incremental, StoreJournal journal) throws IOException {
+        if (journal.isInterrupted() && journal.getDate() != null) {
+            date = journal.getDate();
+        }
+        journal.begin(date);
+        int rewritten = 0;
+        int skipped = 0;
+        ExecutorService executor = concurrency.newExecutor();
+        try {
+            List<Future<List<Stored>>> futures = new ArrayList<>(outputDirs.size());
+            Map<Path, List<EntryLocalization>> nested = new LinkedHashMap<>();
+            for (EntryLocalization entry : outputDirs) {
+                if (Archives.isNested(entry.getSourcePath())) {
+                    nested.computeIfAbsent(Archives.outer(entry.getSourcePath()), (outer) -> new ArrayList<>()).add(entry);
+                } else {
+                    futures.add(executor.submit(() -> Collections.singletonList(store(entry, manifest, incremental, journal))));
+                }
+            }
+            nested.forEach((outer, entries) -> futures.add(executor.submit(() -> storeNested(outer, entries, manifest, incremental, journal))));
+            for (Future<List<Stored>> future : futures) {
+                try {
+                    for (Stored stored : future.get()) {
+                        if (stored == null) {
+                            continue;
+                        }
+                        if (stored.fingerprint == null) {
+                            skipped++;
+                        } else {
+                            synchronized (manifest) {
+                                manifest.put(stored.jar, stored.fingerprint, stored.bundles);
+                            }
+                            rewritten++;
                         }
-//                    Files.move(target, original);
-                    } catch (IOException ex) {
-                        LOGGER.error(ex.getMessage(), ex);
                     }
+                } catch (ExecutionException ex) {
+                    LOGGER.error(ex.getCause().getMessage(), ex.getCause());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.error(ex.getMessage(), ex);
+        } finally {
+            executor.shutdownNow();
+        }
+        journal.end();
+        LOGGER.info("JARs reescritos:{} sin cambios:{}", rewritten, skipped);
+        return rewritten;
+    }
+
+    /**
+     * @return {@code null} when the JAR has no translations, a result without
+     * fingerprint when it was skipped
+     */
+    private Stored store(EntryLocalization entry, StoreManifest manifest, boolean incremental, StoreJournal journal) throws IOException {
+        Map<String, Path> translations = findTranslations(entry, bundlesL10n);
+        if (translations.isEmpty()) {
+            return null;
+        }
+        Stored stored = new Stored(entry.getSourcePath().toString(), hashes(translations));
+        boolean unchanged;
+        synchronized (manifest) {
+            unchanged = incremental && manifest.isStored(stored.jar, JarFingerprint.of(entry.getSourcePath(), false), stored.bundles);
+        }
+        if (unchanged) {
+            LOGGER.debug("Sin cambios {}", stored.jar);
+            return stored;
+        }
+        Path original = entry.getSourcePath();
+        translations.values().forEach((langProp) -> LOGGER.debug("Agregando {}", langProp));
+        rewrite(original, (temp) -> rewriteJar(original, temp, translations), journal);
+        SourceHashes.record(translations.values());
+        stored.fingerprint = JarFingerprint.of(entry.getSourcePath(), false);
+        metrics.increment(RunMetrics.Counter.JARS_REWRITTEN);
+        metrics.add(RunMetrics.Counter.BYTES_WRITTEN, stored.fingerprint.getSize());
+        return stored;
+    }
+
+    /**
+     * Stores the translations of the JARs nested in the same archive. The
+     * archive is rewritten once, when any of them changed; the fingerprint
+     * of its JARs that did not change is updated in the manifest, since they
+     * are identified by the archive.
+     */
+    private List<Stored> storeNested(Path outer, List<EntryLocalization> entries, StoreManifest manifest, boolean incremental, StoreJournal journal) throws IOException {
+        List<Stored> stored = new ArrayList<>();
+        List<Stored> unchanged = new ArrayList<>();
+        Map<String, Map<String, Path>> rewrites = new LinkedHashMap<>();
+        for (EntryLocalization entry : entries) {
+            Map<String, Path> translations = findTranslations(entry, bundlesL10n);
+            if (translations.isEmpty()) {
+                continue;
+            }
+            Stored jar = new Stored(entry.getSourcePath().toString(), hashes(translations));
+            stored.add(jar);
+            synchronized (manifest) {
+                if (incremental && manifest.isStored(jar.jar, JarFingerprint.of(entry.getSourcePath(), false), jar.bundles)) {
+                    LOGGER.debug("Sin cambios {}", jar.jar);
+                    unchanged.add(jar);
+                    continue;
+                }
+            }
+            translations.values().forEach((langProp) -> LOGGER.debug("Agregando {}", langProp));
+            rewrites.put(Archives.entryName(entry.getSourcePath()), translations);
+        }
+        if (rewrites.isEmpty()) {
+            return stored;
+        }
+        rewrite(outer, (temp) -> rewriteNested(outer, temp, rewrites), journal);
+        rewrites.values().forEach((translations) -> SourceHashes.record(translations.values()));
+        JarFingerprint fingerprint = JarFingerprint.of(outer, false);
+        for (Stored jar : stored) {
+            if (unchanged.contains(jar)) {
+                synchronized (manifest) {
+                    manifest.put(jar.jar, fingerprint, jar.bundles);
+                }
+            } else {
+                jar.fingerprint = fingerprint;
+                metrics.increment(RunMetrics.Counter.JARS_REWRITTEN);
+            }
+        }
+        metrics.add(RunMetrics.Counter.BYTES_WRITTEN, fingerprint.getSize());
+        return stored;
+    }
+
+    /**
+     * @return the SHA-256 of every translation, keyed by entry name
+     */
+    static Map<String, String> hashes(Map<String, Path> translations) throws IOException {
+        Map<String, String> hashes = new TreeMap<>();
+        for (Map.Entry<String, Path> translation : translations.entrySet()) {
+            hashes.put(translation.getKey(), Digests.sha256(translation.getValue()));
+        }
+        return hashes;
+    }
+
+    /**
+     * Collects the translated bundles of a JAR in every language, keyed by
+     * their entry name.
+     */
+    static Map<String, Path> findTranslations(EntryLocalization entry, List<String> bundlesL10n) {
+        Map<String, Path> translations = new LinkedHashMap<>();
+        if (entry.getBundleOutputPath() == null) {
+            return translations;
+        }
+        Path outputPath = entry.getOutputPath().toAbsolutePath().normalize();
+        entry.getBundleOutputPath().forEach((out) -> bundlesL10n.forEach((bundleL10n) -> {
+            Path langProp = Paths.get(out.getParent().toString(), bundleL10n).toAbsolutePath().normalize();
+            if (!langProp.startsWith(outputPath)) {
+                // the entry name would climb out of the JAR
+                LOGGER.warn("{}: fuera de {}", langProp, outputPath);
+            } else if (Files.exists(langProp)) {
+                String entryName = StringUtils.replace(outputPath.relativize(langProp).toString(), langProp.getFileSystem().getSeparator(), "/");
+                translations.putIfAbsent(entryName, langProp);
+            }
+        }));
+        return translations;
+    }
+
+    /**
+     * Builds the new archive in a temporary file, keeps the original as a
+     * timestamped backup and moves the new archive into place. A link is
+     * followed, so the JAR it points to is the one replaced.
+     */
+    private void rewrite(Path link, Builder builder, StoreJournal journal) throws IOException {
+        Path original = link.toRealPath();
+        Path temp = Paths.get(original.getParent().toString(), original.getFileName().toString() + TEMP_SUFFIX);
+        Path backup = Paths.get(original.getParent().toString(), original.getFileName().toString() + '-' + date);
+        metrics.increment(RunMetrics.Counter.JARS_OPENED);
+        metrics.add(RunMetrics.Counter.BYTES_READ, Files.size(original));
+        try {
+            builder.build(temp);
+            force(temp);
+            boolean backupCreated = backup(original, backup);
+            journal.prepared(original, temp, backup, backupCreated);
+            Files.move(temp, original, ATOMIC_MOVE, REPLACE_EXISTING);
+            forceDirectory(original.getParent());
+            journal.done(original);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Rebuilds the JAR in a single pass with every translated bundle.
+     * Unchanged entries are copied without being decompressed; archives that
+     * can not be copied that way are rebuilt entry by entry.
+     */
+    private static void rewriteJar(Path original, Path temp, Map<String, Path> translations) throws IOException {
+        try {
+            JarRewriter.rewrite(original, temp, translations);
+        } catch (ZipException ex) {
+            LOGGER.warn("{}: {}, se reconstruye entrada por entrada", original, ex.getMessage());
+            try (Archive archive = new JarArchive(original)) {
+                rewriteEntries(archive, temp, translations);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds each changed nested JAR from its entries in the outer
+     * archive into a file next to it, and rewrites the outer archive with
+     * them.
+     */
+    private static void rewriteNested(Path outer, Path temp, Map<String, Map<String, Path>> rewrites) throws IOException {
+        Map<String, Path> jars = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<String, Map<String, Path>> rewrite : rewrites.entrySet()) {
+                Path jar = temp.resolveSibling(temp.getFileName().toString() + '-' + jars.size());
+                jars.put(rewrite.getKey(), jar);
+                try (Archive archive = Archives.open(Archives.nested(outer, rewrite.getKey()))) {
+                    rewriteEntries(archive, jar, rewrite.getValue());
                 }
+            }
+            rewriteJar(outer, temp, jars);
+        } finally {
+            for (Path jar : jars.values()) {
+                Files.deleteIfExists(jar);
+            }
+        }
+    }
+
+    private static void rewriteEntries(Archive source, Path temp, Map<String, Path> translations) throws IOException {
+        try (OutputStream os = Files.newOutputStream(temp); JarOutputStream jos = new JarOutputStream(os)) {
+            source.forEach((e) -> {
+                if (e.isDirectory() || translations.containsKey(e.getName())) {
+                    return true;
+                }
+                try (InputStream is = e.open()) {
+                    jos.putNextEntry(new JarEntry(e.getName()));
+                    Streams.copy(is, jos);
+                    jos.closeEntry();
+                }
+                return true;
             });
-        });
+            for (Map.Entry<String, Path> translation : translations.entrySet()) {
+                jos.putNextEntry(new JarEntry(translation.getKey()));
+                Files.copy(translation.getValue(), jos);
+                jos.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * The backup is a hard link to the original JAR when the file system
+     * allows it, so it costs no copy; the original is replaced, never
+     * written in place, so the link keeps the old content. An existing
+     * backup is older than the original and is kept.
+     *
+     * @return false when the backup was already there
+     */
+    private static boolean backup(Path original, Path backup) throws IOException {
+        if (Files.exists(backup)) {
+            return false;
+        }
+        try {
+            Files.createLink(backup, original);
+        } catch (IOException | UnsupportedOperationException ex) {
+            LOGGER.debug("{}: {}", backup, ex.getMessage());
+            Files.copy(original, backup, REPLACE_EXISTING);
+            force(backup);
+        }
+        return true;
+    }
+
+    private static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Makes the rename durable. Not every platform can open a directory, in
+     * which case the rename is left to the file system.
+     */
+    private static void forceDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ex) {
+            LOGGER.debug("{}: {}", dir, ex.getMessage());
+        }
+    }
+
+    /**
+     * Finishes the moves prepared by an interrupted store. A step whose
+     * temporary file is gone was already moved, or failed and left the
+     * original in place.
+     */
+    public static void resume(StoreJournal journal) throws IOException {
+        for (StoreJournal.Step step : journal.getSteps()) {
+            if (!journal.isDone(step) && Files.exists(step.getTemp())) {
+                LOGGER.info("Completando {}", step.getJar());
+                Files.move(step.getTemp(), step.getJar(), ATOMIC_MOVE, REPLACE_EXISTING);
+                forceDirectory(step.getJar().getParent());
+            }
+        }
+    }
+
+    /**
+     * Puts back the original JARs of the last store, finished or not, and
+     * forgets them in the manifest.
+     *
+     * @return the JARs restored
+     */
+    public static int rollback(StoreJournal journal, StoreManifest manifest) throws IOException {
+        List<StoreJournal.Step> steps = journal.getSteps();
+        Collections.reverse(steps);
+        Map<Path, List<String>> stored = manifestKeys(manifest);
+        int restored = 0;
+        for (StoreJournal.Step step : steps) {
+            if (Files.exists(step.getTemp()) && !step.isReplaced()) {
+                // never moved: the original is still in place
+                Files.delete(step.getTemp());
+                if (step.isBackupCreated()) {
+                    Files.deleteIfExists(step.getBackup());
+                }
+            } else if (Files.exists(step.getBackup())) {
+                // moved, by this batch or an earlier one: the backup is the original
+                Files.deleteIfExists(step.getTemp());
+                LOGGER.info("Restaurando {}", step.getJar());
+                Files.move(step.getBackup(), step.getJar(), ATOMIC_MOVE, REPLACE_EXISTING);
+                forceDirectory(step.getJar().getParent());
+                restored++;
+            } else {
+                LOGGER.warn("No existe la copia de {}: {}", step.getJar(), step.getBackup());
+                continue;
+            }
+            stored.getOrDefault(step.getJar(), Collections.emptyList()).forEach(manifest.getJars()::remove);
+        }
+        journal.delete();
+        return restored;
+    }
+
+    /**
+     * The manifest is keyed by the source paths of the structure, which may
+     * be links or relative; the journal records the real path of the
+     * archive that was replaced. The JARs nested in an NBM are keyed under
+     * the real path of the NBM.
+     */
+    private static Map<Path, List<String>> manifestKeys(StoreManifest manifest) {
+        Map<Path, List<String>> keys = new HashMap<>();
+        for (String key : manifest.getJars().keySet()) {
+            Path jar = Paths.get(key);
+            try {
+                Path archive = Archives.isNested(jar) ? Archives.outer(jar) : jar;
+                keys.computeIfAbsent(archive.toRealPath(), (real) -> new ArrayList<>()).add(key);
+            } catch (IOException ex) {
+                LOGGER.debug("{}: {}", key, ex.getMessage());
+            }
+        }
+        return keys;
+    }
+
+    @FunctionalInterface
+    private interface Builder {
+
+        void build(Path temp) throws IOException;
+    }
+
+    /**
+     * A JAR written with translations, as recorded in the manifest.
+     */
+    static class Stored {
+
+        final String jar;
+        final Map<String, String> bundles;
+        // null when the JAR was skipped
+        JarFingerprint fingerprint;
+
+        Stored(String jar, Map<String, String> bundles) {
+            this.jar = jar;
+            this.bundles = bundles;
+        }
     }
 }
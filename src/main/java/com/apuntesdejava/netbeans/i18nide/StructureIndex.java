@@ -0,0 +1,263 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Binary form of the structure, faster to load than structure.json. The
+ * layout, big-endian, is:
+ *
+ * <pre>
+ * int     magic "I18N"
+ * short   version
+ * int     string count, then per string: short length, UTF-8 bytes
+ * int     entry count, then per entry: int offset of its record
+ * records int length, then:
+ *           int source dir, int source name        (string indexes)
+ *           int output dir, int output name
+ *           long size, long lastModified, int hash (-1 without fingerprint or hash)
+ *           int bundle count, then per bundle:
+ *             int dir, int name                    (relative to the output path)
+ * </pre>
+ *
+ * Directories and file names are interned in the string table, so the
+ * prefixes shared by thousands of paths are stored once. Entries are
+ * decoded on first access.
+ */
+public class StructureIndex extends AbstractList<EntryLocalization> implements RandomAccess {
+
+    private static final int MAGIC = 0x4931384E;
+    private static final short VERSION = 1;
+    private static final int NONE = -1;
+
+    private final ByteBuffer buffer;
+    private final int[] stringOffsets;
+    private final String[] strings;
+    private final int[] recordOffsets;
+    private final EntryLocalization[] entries;
+
+    private StructureIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.remaining() < 6 || buffer.getInt() != MAGIC) {
+            throw new IOException("No es un indice de estructura");
+        }
+        short version = buffer.getShort();
+        if (version != VERSION) {
+            throw new IOException("Version de indice no soportada: " + version);
+        }
+        stringOffsets = new int[buffer.getInt()];
+        strings = new String[stringOffsets.length];
+        for (int i = 0; i < stringOffsets.length; i++) {
+            stringOffsets[i] = buffer.position();
+            buffer.position(buffer.position() + 2 + Short.toUnsignedInt(buffer.getShort()));
+        }
+        recordOffsets = new int[buffer.getInt()];
+        for (int i = 0; i < recordOffsets.length; i++) {
+            recordOffsets[i] = buffer.getInt();
+        }
+        entries = new EntryLocalization[recordOffsets.length];
+    }
+
+    private static StructureIndex of(ByteBuffer buffer) throws IOException {
+        try {
+            return new StructureIndex(buffer);
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException ex) {
+            throw new IOException("Indice de estructura truncado", ex);
+        }
+    }
+
+    /**
+     * Maps the index. The file must not be replaced while the list is in use.
+     */
+    public static StructureIndex map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return of(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Reads the index into the heap, so the file can be rewritten afterwards.
+     */
+    public static StructureIndex read(Path file) throws IOException {
+        return of(ByteBuffer.wrap(Files.readAllBytes(file)));
+    }
+
+    @Override
+    public EntryLocalization get(int index) {
+        EntryLocalization entry = entries[index];
+        if (entry == null) {
+            entry = decode(recordOffsets[index]);
+            entries[index] = entry;
+        }
+        return entry;
+    }
+
+    @Override
+    public int size() {
+        return entries.length;
+    }
+
+    private EntryLocalization decode(int offset) {
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset + 4);
+        Path sourcePath = path(record.getInt(), record.getInt());
+        Path outputPath = path(record.getInt(), record.getInt());
+        EntryLocalization entry = new EntryLocalization(sourcePath, outputPath);
+        long size = record.getLong();
+        long lastModified = record.getLong();
+        int hash = record.getInt();
+        if (size != NONE) {
+            JarFingerprint fingerprint = new JarFingerprint();
+            fingerprint.setSize(size);
+            fingerprint.setLastModified(lastModified);
+            fingerprint.setDirectoryHash(hash == NONE ? null : string(hash));
+            entry.setFingerprint(fingerprint);
+        }
+        int bundles = record.getInt();
+        if (bundles != NONE) {
+            List<Path> bundleOutputPath = new ArrayList<>(bundles);
+            for (int i = 0; i < bundles; i++) {
+                bundleOutputPath.add(outputPath.resolve(path(record.getInt(), record.getInt())));
+            }
+            entry.setBundleOutputPath(bundleOutputPath);
+        }
+        return entry;
+    }
+
+    private Path path(int dir, int name) {
+        return dir == NONE ? Paths.get(string(name)) : Paths.get(string(dir), string(name));
+    }
+
+    private String string(int index) {
+        String string = strings[index];
+        if (string == null) {
+            int offset = stringOffsets[index];
+            byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort(offset))];
+            ByteBuffer b = buffer.duplicate();
+            b.position(offset + 2);
+            b.get(bytes);
+            string = new String(bytes, StandardCharsets.UTF_8);
+            strings[index] = string;
+        }
+        return string;
+    }
+
+    /**
+     * Writes the index to a temporary file and moves it over {@code file}.
+     */
+    public static void write(List<EntryLocalization> entries, Path file) throws IOException {
+        Map<String, Integer> interned = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(records);
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream rec = new DataOutputStream(record);
+        int[] offsets = new int[entries.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            EntryLocalization entry = entries.get(i);
+            record.reset();
+            writePath(rec, entry.getSourcePath(), interned, strings);
+            writePath(rec, entry.getOutputPath(), interned, strings);
+            JarFingerprint fingerprint = entry.getFingerprint();
+            if (fingerprint == null) {
+                rec.writeLong(NONE);
+                rec.writeLong(NONE);
+                rec.writeInt(NONE);
+            } else {
+                rec.writeLong(fingerprint.getSize());
+                rec.writeLong(fingerprint.getLastModified());
+                rec.writeInt(fingerprint.getDirectoryHash() == null ? NONE : intern(fingerprint.getDirectoryHash(), interned, strings));
+            }
+            List<Path> bundles = entry.getBundleOutputPath();
+            if (bundles == null) {
+                rec.writeInt(NONE);
+            } else {
+                rec.writeInt(bundles.size());
+                for (Path bundle : bundles) {
+                    writePath(rec, entry.getOutputPath().relativize(bundle), interned, strings);
+                }
+            }
+            offsets[i] = records.size();
+            out.writeInt(record.size());
+            record.writeTo(out);
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(temp); DataOutputStream index = new DataOutputStream(new BufferedOutputStream(os))) {
+                index.writeInt(MAGIC);
+                index.writeShort(VERSION);
+                index.writeInt(strings.size());
+                for (String string : strings) {
+                    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                    index.writeShort(bytes.length);
+                    index.write(bytes);
+                }
+                index.writeInt(offsets.length);
+                int recordsStart = index.size() + offsets.length * 4;
+                for (int offset : offsets) {
+                    index.writeInt(recordsStart + offset);
+                }
+                records.writeTo(index);
+            }
+            Files.move(temp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writePath(DataOutputStream out, Path path, Map<String, Integer> interned, List<String> strings) throws IOException {
+        Path parent = path.getParent();
+        out.writeInt(parent == null ? NONE : intern(parent.toString(), interned, strings));
+        out.writeInt(intern(path.getFileName() == null ? path.toString() : path.getFileName().toString(), interned, strings));
+    }
+
+    private static int intern(String string, Map<String, Integer> interned, List<String> strings) throws IOException {
+        Integer index = interned.get(string);
+        if (index == null) {
+            if (string.getBytes(StandardCharsets.UTF_8).length > 0xFFFF) {
+                throw new IOException("Ruta demasiado larga: " + string);
+            }
+            index = strings.size();
+            strings.add(string);
+            interned.put(string, index);
+        }
+        return index;
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Translations of source strings in one language, kept on disk between runs
+ * and shared by every module. The layout, big-endian, is:
+ *
+ * <pre>
+ * int     magic "I18T"
+ * short   version
+ * int     entry count, then per entry, sorted by hash:
+ *           long hash of the source string, int offset of its record
+ * records int length, UTF-8 source, int length, UTF-8 translation
+ * </pre>
+ *
+ * Lookups binary-search the hashes and compare the source bytes, so only the
+ * translations that are found get decoded. An LRU cache in front of the file
+ * keeps the strings repeated across modules. New translations are held in
+ * memory until {@link #save()}.
+ */
+public class TranslationMemory {
+
+    private static final int MAGIC = 0x49313854;
+    private static final short VERSION = 1;
+    private static final int HEADER = 10;
+    private static final int SLOT = 12;
+    private static final String MISSING = new String();
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final int count;
+    private final Map<String, String> added = new HashMap<>();
+    private final Map<String, String> cache;
+
+    private TranslationMemory(Path file, ByteBuffer buffer, int cacheSize) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.capacity() == 0) {
+            count = 0;
+        } else {
+            if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC) {
+                throw new IOException("No es una memoria de traduccion: " + file);
+            }
+            short version = buffer.getShort(4);
+            if (version != VERSION) {
+                throw new IOException("Version de memoria de traduccion no soportada: " + version);
+            }
+            count = buffer.getInt(6);
+            if (count < 0 || buffer.capacity() < HEADER + (long) count * SLOT) {
+                throw new IOException("Memoria de traduccion truncada: " + file);
+            }
+        }
+        this.cache = new LinkedHashMap<String, String>(cacheSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Loads the memory into the heap, since {@link #save()} replaces the
+     * file. A missing file is an empty memory.
+     *
+     * @param cacheSize number of source strings kept in the LRU cache
+     */
+    public static TranslationMemory load(Path file, int cacheSize) throws IOException {
+        ByteBuffer buffer = Files.exists(file) ? ByteBuffer.wrap(Files.readAllBytes(file)) : ByteBuffer.allocate(0);
+        return new TranslationMemory(file, buffer, cacheSize);
+    }
+
+    /**
+     * @return the translation of {@code source}, or {@code null}
+     */
+    public String get(String source) {
+        synchronized (cache) {
+            String translation = cache.get(source);
+            if (translation != null) {
+                return translation == MISSING ? null : translation;
+            }
+            translation = added.get(source);
+            if (translation == null) {
+                translation = find(source);
+            }
+            cache.put(source, translation == null ? MISSING : translation);
+            return translation;
+        }
+    }
+
+    /**
+     * Records a translation; it replaces the previous one of the same source
+     * string.
+     */
+    public void put(String source, String translation) {
+        synchronized (cache) {
+            if (translation.equals(get(source))) {
+                return;
+            }
+            added.put(source, translation);
+            cache.put(source, translation);
+        }
+    }
+
+    /**
+     * @return the translations added since the memory was loaded
+     */
+    public int added() {
+        synchronized (cache) {
+            return added.size();
+        }
+    }
+
+    /**
+     * @return the translations loaded from the file
+     */
+    public int size() {
+        return count;
+    }
+
+    private String find(String source) {
+        long hash = hash(source);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long h = buffer.getLong(HEADER + mid * SLOT);
+            if (h < hash) {
+                low = mid + 1;
+            } else if (h > hash) {
+                high = mid - 1;
+            } else {
+                // several sources can share a hash: go back to the first one
+                while (mid > 0 && buffer.getLong(HEADER + (mid - 1) * SLOT) == hash) {
+                    mid--;
+                }
+                byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+                for (int i = mid; i < count && buffer.getLong(HEADER + i * SLOT) == hash; i++) {
+                    int record = buffer.getInt(HEADER + i * SLOT + 8);
+                    if (sourceEquals(record, bytes)) {
+                        return string(record + 4 + bytes.length);
+                    }
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private boolean sourceEquals(int record, byte[] bytes) {
+        if (buffer.getInt(record) != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(record + 4 + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String string(int offset) {
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset + 4);
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * FNV-1a over the characters of the string.
+     */
+    static long hash(String source) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < source.length(); i++) {
+            hash ^= source.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Merges the added translations with the ones of the file, and writes
+     * them to a temporary file that is moved over the previous one.
+     */
+    public void save() throws IOException {
+        Map<String, String> all = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            int record = buffer.getInt(HEADER + i * SLOT + 8);
+            String source = string(record);
+            all.put(source, string(record + 4 + buffer.getInt(record)));
+        }
+        synchronized (cache) {
+            all.putAll(added);
+        }
+        List<String> sources = new ArrayList<>(all.keySet());
+        long[] hashes = new long[sources.size()];
+        sources.sort((a, b) -> {
+            int c = Long.compare(hash(a), hash(b));
+            return c != 0 ? c : a.compareTo(b);
+        });
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = hash(sources.get(i));
+        }
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(temp); DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+                out.writeInt(MAGIC);
+                out.writeShort(VERSION);
+                out.writeInt(sources.size());
+                int offset = HEADER + sources.size() * SLOT;
+                List<byte[]> records = new ArrayList<>(sources.size() * 2);
+                for (int i = 0; i < hashes.length; i++) {
+                    String source = sources.get(i);
+                    byte[] sourceBytes = source.getBytes(StandardCharsets.UTF_8);
+                    byte[] translationBytes = all.get(source).getBytes(StandardCharsets.UTF_8);
+                    records.add(sourceBytes);
+                    records.add(translationBytes);
+                    out.writeLong(hashes[i]);
+                    out.writeInt(offset);
+                    offset += 8 + sourceBytes.length + translationBytes.length;
+                }
+                for (byte[] record : records) {
+                    out.writeInt(record.length);
+                    out.write(record);
+                }
+            }
+            Files.move(temp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares every extracted {@code Bundle.properties} with its
+ * {@code Bundle_<lang>.properties} key by key, one task per JAR.
+ */
+public class TranslationStatus {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TranslationStatus.class);
+
+    private final List<String> langs;
+    private final Concurrency concurrency;
+    private final ParsedBundles parsed;
+    private final RunMetrics metrics;
+    private final ThreadLocal<PropertiesParser> parsers = ThreadLocal.withInitial(PropertiesParser::new);
+
+    public TranslationStatus(List<String> langs, Concurrency concurrency, RunMetrics metrics) {
+        this(langs, concurrency, null, metrics);
+    }
+
+    /**
+     * @param parsed the bundles kept parsed between checks, or {@code null}
+     * to parse them on every check
+     */
+    public TranslationStatus(List<String> langs, Concurrency concurrency, ParsedBundles parsed, RunMetrics metrics) {
+        this.langs = langs;
+        this.concurrency = concurrency;
+        this.parsed = parsed;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the coverage of every bundle in every language, in the order of
+     * the entries
+     */
+    public List<BundleCoverage> check(List<EntryLocalization> entries) {
+        List<BundleCoverage> coverages = new ArrayList<>();
+        ExecutorService executor = concurrency.newExecutor();
+        try {
+            List<Future<List<BundleCoverage>>> futures = new ArrayList<>(entries.size());
+            entries.forEach((entry) -> futures.add(executor.submit(() -> check(entry))));
+            for (Future<List<BundleCoverage>> future : futures) {
+                try {
+                    coverages.addAll(future.get());
+                } catch (ExecutionException ex) {
+                    LOGGER.error(ex.getMessage(), ex.getCause());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.error(ex.getMessage(), ex);
+        } finally {
+            executor.shutdownNow();
+        }
+        return coverages;
+    }
+
+    private List<BundleCoverage> check(EntryLocalization entry) {
+        if (entry.getBundleOutputPath() == null) {
+            return Collections.emptyList();
+        }
+        PropertiesParser parser = parsers.get();
+        List<BundleCoverage> coverages = new ArrayList<>();
+        for (Path bundle : entry.getBundleOutputPath()) {
+            try {
+                Map<String, String> source = parse(parser, bundle);
+                for (String lang : langs) {
+                    Path translation = bundle.resolveSibling("Bundle_" + lang + ".properties");
+                    Map<String, String> translated = Files.exists(translation) ? parse(parser, translation) : Collections.emptyMap();
+                    Path hashes = SourceHashes.file(translation);
+                    Map<String, String> sources = Files.exists(hashes) ? parse(parser, hashes) : Collections.emptyMap();
+                    coverages.add(compare(bundle, lang, source, translated, sources));
+                }
+            } catch (IOException | IllegalArgumentException ex) {
+                LOGGER.error("{}: {}", bundle, ex.getMessage());
+            }
+        }
+        return coverages;
+    }
+
+    private Map<String, String> parse(PropertiesParser parser, Path file) throws IOException {
+        if (parsed != null) {
+            return parsed.get(file);
+        }
+        Map<String, String> properties = new LinkedHashMap<>();
+        metrics.add(RunMetrics.Counter.BYTES_READ, parser.parse(file, properties::put));
+        metrics.increment(RunMetrics.Counter.BUNDLES_PARSED);
+        return properties;
+    }
+
+    /**
+     * @param sources the {@link SourceHashes} of the translation
+     */
+    static BundleCoverage compare(Path bundle, String lang, Map<String, String> source, Map<String, String> translated, Map<String, String> sources) {
+        BundleCoverage coverage = new BundleCoverage(bundle, lang);
+        coverage.setKeys(source.size());
+        source.forEach((key, value) -> {
+            String translation = translated.get(key);
+            if (translation == null) {
+                coverage.addMissing(key);
+            } else if (SourceHashes.isStale(sources.get(key), value, translation)) {
+                coverage.addStale(key);
+            } else if (translation.equals(value) && !value.trim().isEmpty()) {
+                coverage.addIdentical(key);
+            }
+        });
+        translated.keySet().stream().filter((key) -> !source.containsKey(key)).forEach(coverage::addExtra);
+        return coverage;
+    }
+
+    /**
+     * Adds up the coverage of every bundle, by language.
+     */
+    public Map<String, BundleCoverage> totals(List<BundleCoverage> coverages) {
+        Map<String, BundleCoverage> totals = new LinkedHashMap<>();
+        langs.forEach((lang) -> totals.put(lang, new BundleCoverage(null, lang)));
+        coverages.forEach((coverage) -> totals.get(coverage.getLang()).merge(coverage));
+        return totals;
+    }
+
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Read-only view of the central directory of a ZIP archive. Records are
+ * addressed by their position inside the central directory: start with
+ * {@link #first()} and move with {@link #next(int)} while the position is
+ * lower than {@link #end()}.
+ *
+ * <p>
+ * ZIP64 archives are rejected with a {@link ZipException}.
+ */
+class ZipCentralDirectory {
+
+    static final int LOC_SIG = 0x04034b50;
+    static final int CEN_SIG = 0x02014b50;
+    static final int END_SIG = 0x06054b50;
+    static final int EXT_SIG = 0x08074b50;
+
+    static final int LOC_HEADER = 30;
+    static final int CEN_HEADER = 46;
+    static final int END_HEADER = 22;
+
+    static final int FLAG_DATA_DESCRIPTOR = 0x08;
+    static final int FLAG_UTF8 = 0x800;
+
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    private static final int MAX_COMMENT = 0xFFFF;
+    static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private final ByteBuffer cen;
+    private final int entries;
+    private final long cenOffset;
+    private final ByteBuffer comment;
+    private final long base;
+
+    private ZipCentralDirectory(ByteBuffer cen, int entries, long cenOffset, ByteBuffer comment, long base) {
+        this.base = base;
+        this.cen = cen;
+        this.entries = entries;
+        this.cenOffset = cenOffset;
+        this.comment = comment;
+    }
+
+    /**
+     * Reads the central directory into the heap. Used when the archive is
+     * going to be moved or replaced afterwards, since some platforms do not
+     * allow that while a region of the file is mapped.
+     */
+    static ZipCentralDirectory read(FileChannel channel) throws IOException {
+        return load(channel, 0, channel.size(), false);
+    }
+
+    /**
+     * Maps the end record and the central directory of the archive, without
+     * copying them into the heap.
+     */
+    static ZipCentralDirectory map(FileChannel channel) throws IOException {
+        return load(channel, 0, channel.size(), true);
+    }
+
+    /**
+     * Maps the central directory of an archive that takes {@code size} bytes
+     * at {@code base} of the file, such as a JAR stored without compression
+     * in an NBM. Offsets stay relative to the archive; {@link #open} adds
+     * the base.
+     */
+    static ZipCentralDirectory map(FileChannel channel, long base, long size) throws IOException {
+        if (base < 0 || base + size > channel.size()) {
+            throw new ZipException("Archivo anidado fuera del archivo");
+        }
+        return load(channel, base, size, true);
+    }
+
+    private static ZipCentralDirectory load(FileChannel channel, long base, long size, boolean mapped) throws IOException {
+        int tailLength = (int) Math.min(size, END_HEADER + MAX_COMMENT);
+        ByteBuffer tail = region(channel, base + size - tailLength, tailLength, mapped);
+        int end = -1;
+        for (int i = tailLength - END_HEADER; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIG) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new ZipException("No se encontro el directorio central");
+        }
+        int entries = Short.toUnsignedInt(tail.getShort(end + 10));
+        long cenSize = Integer.toUnsignedLong(tail.getInt(end + 12));
+        long cenOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+        int commentLength = Short.toUnsignedInt(tail.getShort(end + 20));
+        if (entries == 0xFFFF || cenSize == ZIP64_MAGIC || cenOffset == ZIP64_MAGIC) {
+            throw new ZipException("ZIP64 no soportado");
+        }
+        if (cenOffset + cenSize > size - tailLength + end || cenSize > Integer.MAX_VALUE) {
+            throw new ZipException("Directorio central invalido");
+        }
+        tail.position(end + END_HEADER).limit(Math.min(tailLength, end + END_HEADER + commentLength));
+        ByteBuffer comment = tail.slice();
+        ZipCentralDirectory directory = new ZipCentralDirectory(region(channel, base + cenOffset, (int) cenSize, mapped), entries, cenOffset, comment, base);
+        directory.validate();
+        return directory;
+    }
+
+    private static ByteBuffer region(FileChannel channel, long position, int length, boolean mapped) throws IOException {
+        if (mapped) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return readFully(channel, position, length);
+    }
+
+    static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new ZipException("Fin de archivo inesperado");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void validate() throws ZipException {
+        int count = 0;
+        for (int pos = first(); pos < end(); pos = next(pos)) {
+            if (pos + CEN_HEADER > cen.limit() || cen.getInt(pos) != CEN_SIG) {
+                throw new ZipException("Registro del directorio central invalido");
+            }
+            if (pos + recordLength(pos) > cen.limit()) {
+                throw new ZipException("Registro del directorio central truncado");
+            }
+            if (compressedSize(pos) == ZIP64_MAGIC || size(pos) == ZIP64_MAGIC || localHeaderOffset(pos) == ZIP64_MAGIC) {
+                throw new ZipException("ZIP64 no soportado");
+            }
+            count++;
+        }
+        if (count != entries) {
+            throw new ZipException("Numero de entradas invalido");
+        }
+    }
+
+    int entries() {
+        return entries;
+    }
+
+    long cenOffset() {
+        return cenOffset;
+    }
+
+    ByteBuffer comment() {
+        return comment.duplicate();
+    }
+
+    /**
+     * Feeds the raw bytes of the central directory to {@code digest}. The
+     * central directory holds the name, CRC and sizes of every entry, so two
+     * archives with the same digest have the same content.
+     */
+    void digest(MessageDigest digest) {
+        digest.update(cen.duplicate());
+    }
+
+    int first() {
+        return 0;
+    }
+
+    int end() {
+        return cen.limit();
+    }
+
+    int next(int pos) {
+        return pos + recordLength(pos);
+    }
+
+    int recordLength(int pos) {
+        return CEN_HEADER + nameLength(pos) + Short.toUnsignedInt(cen.getShort(pos + 30)) + Short.toUnsignedInt(cen.getShort(pos + 32));
+    }
+
+    int flags(int pos) {
+        return Short.toUnsignedInt(cen.getShort(pos + 8));
+    }
+
+    int method(int pos) {
+        return Short.toUnsignedInt(cen.getShort(pos + 10));
+    }
+
+    long crc(int pos) {
+        return Integer.toUnsignedLong(cen.getInt(pos + 16));
+    }
+
+    long compressedSize(int pos) {
+        return Integer.toUnsignedLong(cen.getInt(pos + 20));
+    }
+
+    long size(int pos) {
+        return Integer.toUnsignedLong(cen.getInt(pos + 24));
+    }
+
+    int nameLength(int pos) {
+        return Short.toUnsignedInt(cen.getShort(pos + 28));
+    }
+
+    long localHeaderOffset(int pos) {
+        return Integer.toUnsignedLong(cen.getInt(pos + 42));
+    }
+
+    String name(int pos) {
+        byte[] name = new byte[nameLength(pos)];
+        cen.duplicate().position(pos + CEN_HEADER).get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares the end of the entry name with {@code suffix} byte by byte,
+     * without decoding the name.
+     */
+    boolean nameEndsWith(int pos, byte[] suffix) {
+        int length = nameLength(pos);
+        if (length < suffix.length) {
+            return false;
+        }
+        int start = pos + CEN_HEADER + length - suffix.length;
+        for (int i = 0; i < suffix.length; i++) {
+            if (cen.get(start + i) != suffix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the position of the record with that name, or -1
+     */
+    int find(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        for (int pos = first(); pos < end(); pos = next(pos)) {
+            if (nameLength(pos) == bytes.length && nameEndsWith(pos, bytes)) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position in the file of the content of the entry, after
+     * its local header
+     */
+    long dataOffset(FileChannel channel, int pos) throws IOException {
+        long loc = base + localHeaderOffset(pos);
+        ByteBuffer header = readFully(channel, loc, LOC_HEADER);
+        if (header.getInt(0) != LOC_SIG) {
+            throw new ZipException("Cabecera local invalida: " + name(pos));
+        }
+        return loc + LOC_HEADER + Short.toUnsignedInt(header.getShort(26)) + Short.toUnsignedInt(header.getShort(28));
+    }
+
+    /**
+     * Opens the uncompressed content of the entry.
+     */
+    InputStream open(FileChannel channel, int pos) throws IOException {
+        long data = dataOffset(channel, pos);
+        switch (method(pos)) {
+            case STORED:
+                return new EntryInputStream(channel, data, compressedSize(pos), false);
+            case DEFLATED:
+                Inflater inflater = new Inflater(true);
+                return new InflaterInputStream(new EntryInputStream(channel, data, compressedSize(pos), true), inflater, Streams.BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        inflater.end();
+                    }
+                };
+            default:
+                throw new ZipException("Metodo de compresion no soportado: " + name(pos));
+        }
+    }
+
+    boolean isDirectory(int pos) {
+        int length = nameLength(pos);
+        return length > 0 && cen.get(pos + CEN_HEADER + length - 1) == '/';
+    }
+
+    /**
+     * Returns a copy of the record with its local header offset replaced.
+     */
+    ByteBuffer record(int pos, long localHeaderOffset) {
+        ByteBuffer record = ByteBuffer.allocate(recordLength(pos)).order(ByteOrder.LITTLE_ENDIAN);
+        record.put(cen.duplicate().position(pos).limit(pos + record.capacity()));
+        record.putInt(42, (int) localHeaderOffset);
+        record.flip();
+        return record;
+    }
+
+    /**
+     * Reads a range of the archive through positional reads, so several
+     * entries can be read from the same channel at once.
+     */
+    private static class EntryInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private long position;
+        private long remaining;
+        private boolean dummyByte;
+
+        /**
+         * @param dummyByte adds an extra byte at the end, needed by an
+         * {@link Inflater} created with {@code nowrap}
+         */
+        EntryInputStream(FileChannel channel, long position, long length, boolean dummyByte) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+            this.dummyByte = dummyByte;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                if (dummyByte && len > 0) {
+                    dummyByte = false;
+                    b[off] = 0;
+                    return 1;
+                }
+                return -1;
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+            if (n < 0) {
+                throw new ZipException("Fin de archivo inesperado");
+            }
+            position += n;
+            remaining -= n;
+            return n;
+        }
+
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ArchivesTest {
+
+    private static final String NESTED = "netbeans/modules/org-foo.jar";
+    private static final String BUNDLE = "org/foo/Bundle.properties";
+    private static final String BUNDLE_ES = "org/foo/Bundle_es.properties";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void findsTheJarsOfAnNbm() throws IOException {
+        for (int method : new int[]{ZipEntry.STORED, ZipEntry.DEFLATED}) {
+            Path netbeans = Files.createDirectories(dir.resolve("netbeans" + method));
+            Path nbm = nbm(netbeans.resolve("update/org-foo.nbm"), method);
+            Set<Path> jars = new NetbeansScanner().scan(netbeans);
+            assertEquals(Collections.singleton(Archives.nested(nbm, NESTED)), jars);
+        }
+    }
+
+    /**
+     * The bundle of the nested JAR is stored with a data descriptor, so only
+     * the central directory of the nested JAR tells its size.
+     */
+    @Test
+    void readsTheNestedJarThroughItsCentralDirectory() throws IOException {
+        for (int method : new int[]{ZipEntry.STORED, ZipEntry.DEFLATED}) {
+            Path nbm = nbm(dir.resolve("org-foo" + method + ".nbm"), method);
+            Map<String, String> entries = new LinkedHashMap<>();
+            try (Archive archive = Archives.open(Archives.nested(nbm, NESTED))) {
+                archive.forEach((entry) -> {
+                    try (InputStream is = entry.open()) {
+                        entries.put(entry.getName(), new String(is.readAllBytes(), StandardCharsets.ISO_8859_1));
+                    }
+                    return true;
+                });
+            }
+            Map<String, String> expected = new LinkedHashMap<>();
+            expected.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n");
+            expected.put(BUNDLE, "CTL_Open=Open\n");
+            expected.put(BUNDLE_ES, "CTL_Open=Abrir\n");
+            assertEquals(expected, entries);
+        }
+    }
+
+    @Test
+    void rejectsAMissingNestedJar() throws IOException {
+        Path nbm = nbm(dir.resolve("org-foo.nbm"), ZipEntry.DEFLATED);
+        assertThrows(NoSuchFileException.class, () -> Archives.open(Archives.nested(nbm, "netbeans/modules/org-bar.jar")));
+    }
+
+    @Test
+    void rejectsEntriesOutsideTheDirectory() throws IOException {
+        Path nbm = dir.resolve("org-foo.nbm");
+        for (String name : Arrays.asList("../evil.jar", "netbeans/../../evil.jar", "/evil.jar", "")) {
+            assertThrows(ZipException.class, () -> Archives.nested(nbm, name), name);
+            assertThrows(ZipException.class, () -> Archives.resolve(dir, name), name);
+        }
+        assertEquals(dir.resolve("org/foo/Bundle.properties"), Archives.resolve(dir, "org/foo/../foo/Bundle.properties"));
+    }
+
+    /**
+     * Writes an NBM holding the JAR {@link #NESTED}, a JAR whose name climbs
+     * out of the directory, and the descriptor of the module.
+     */
+    private static Path nbm(Path file, int method) throws IOException {
+        Files.createDirectories(file.getParent());
+        byte[] jar = jar();
+        try (OutputStream os = Files.newOutputStream(file); ZipOutputStream zos = new ZipOutputStream(os)) {
+            put(zos, "Info/info.xml", "<module/>".getBytes(StandardCharsets.UTF_8), ZipEntry.DEFLATED);
+            put(zos, NESTED, jar, method);
+            put(zos, "netbeans/../../evil.jar", jar, method);
+        }
+        return file;
+    }
+
+    /**
+     * Writes a JAR whose {@link #BUNDLE} is stored with a data descriptor:
+     * its local header has neither the sizes nor the CRC, which only the
+     * central directory holds.
+     */
+    private static byte[] jar() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bytes)) {
+            put(zos, "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n".getBytes(StandardCharsets.UTF_8), ZipEntry.DEFLATED);
+            put(zos, BUNDLE, "CTL_Open=Open\n".getBytes(StandardCharsets.ISO_8859_1), ZipEntry.STORED);
+            put(zos, BUNDLE_ES, "CTL_Open=Abrir\n".getBytes(StandardCharsets.ISO_8859_1), ZipEntry.DEFLATED);
+        }
+        ByteBuffer jar = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] name = BUNDLE.getBytes(StandardCharsets.UTF_8);
+        for (int pos = 0; pos + 30 + name.length <= jar.limit(); pos++) {
+            if (jar.getInt(pos) == 0x04034b50 && jar.getShort(pos + 26) == name.length
+                    && Arrays.equals(Arrays.copyOfRange(jar.array(), pos + 30, pos + 30 + name.length), name)) {
+                jar.putShort(pos + 6, (short) (jar.getShort(pos + 6) | ZipCentralDirectory.FLAG_DATA_DESCRIPTOR));
+                jar.putInt(pos + 14, 0).putInt(pos + 18, 0).putInt(pos + 22, 0);
+                return jar.array();
+            }
+        }
+        throw new IllegalStateException(BUNDLE);
+    }
+
+    private static void put(ZipOutputStream zos, String name, byte[] content, int method) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(method);
+        if (method == ZipEntry.STORED) {
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            entry.setSize(content.length);
+            entry.setCompressedSize(content.length);
+            entry.setCrc(crc.getValue());
+        }
+        zos.putNextEntry(entry);
+        zos.write(content);
+        zos.closeEntry();
+    }
+
+}
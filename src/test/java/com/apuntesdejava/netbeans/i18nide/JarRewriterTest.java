@@ -0,0 +1,139 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JarRewriterTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void copiesEntriesAndAddsTranslations() throws IOException {
+        Path source = dir.resolve("source.jar");
+        Path target = dir.resolve("target.jar");
+        ZipCentralDirectoryTest.write(source);
+        Map<String, Path> additions = new LinkedHashMap<>();
+        additions.put("org/foo/Bundle.properties", properties("title=Nuevo\n"));
+        additions.put("org/foo/Bundle_es.properties", properties("title=T\\u00edtulo\n"));
+
+        JarRewriter.rewrite(source, target, additions);
+
+        try (ZipFile original = new ZipFile(source.toFile()); ZipFile rewritten = new ZipFile(target.toFile())) {
+            assertEquals(original.size() + 1, rewritten.size());
+            assertEquals(original.getComment(), rewritten.getComment());
+            Enumeration<? extends ZipEntry> entries = original.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry expected = entries.nextElement();
+                if (additions.containsKey(expected.getName())) {
+                    continue;
+                }
+                ZipEntry actual = rewritten.getEntry(expected.getName());
+                assertNotNull(actual, expected.getName());
+                assertEquals(expected.getCrc(), actual.getCrc());
+                assertEquals(expected.getMethod(), actual.getMethod());
+                assertEquals(expected.getCompressedSize(), actual.getCompressedSize());
+                assertArrayEquals(read(original, expected), read(rewritten, actual), expected.getName());
+            }
+            for (Map.Entry<String, Path> addition : additions.entrySet()) {
+                ZipEntry actual = rewritten.getEntry(addition.getKey());
+                assertNotNull(actual, addition.getKey());
+                assertArrayEquals(Files.readAllBytes(addition.getValue()), read(rewritten, actual));
+            }
+        }
+    }
+
+    @Test
+    void rewritesItsOwnOutput() throws IOException {
+        Path source = dir.resolve("source.jar");
+        Path first = dir.resolve("first.jar");
+        Path second = dir.resolve("second.jar");
+        ZipCentralDirectoryTest.write(source);
+        Map<String, Path> additions = Map.of("org/foo/Bundle_es.properties", properties("title=Titulo\n"));
+        JarRewriter.rewrite(source, first, additions);
+        JarRewriter.rewrite(first, second, additions);
+        try (ZipFile expected = new ZipFile(first.toFile()); ZipFile actual = new ZipFile(second.toFile())) {
+            assertEquals(expected.size(), actual.size());
+            Enumeration<? extends ZipEntry> entries = expected.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                assertEquals(entry.getCrc(), actual.getEntry(entry.getName()).getCrc(), entry.getName());
+                assertArrayEquals(read(expected, entry), read(actual, actual.getEntry(entry.getName())), entry.getName());
+            }
+        }
+    }
+
+    @Test
+    void rejectsZip64() throws IOException {
+        Path source = dir.resolve("zip64.jar");
+        try (OutputStream os = Files.newOutputStream(source); ZipOutputStream zos = new ZipOutputStream(os)) {
+            for (int i = 0; i < 0x10000; i++) {
+                zos.putNextEntry(new ZipEntry("e" + i));
+                zos.closeEntry();
+            }
+        }
+        assertThrows(ZipException.class, () -> JarRewriter.rewrite(source, dir.resolve("target.jar"), Map.of()));
+    }
+
+    @Test
+    void keepsEmptyArchive() throws IOException {
+        Path source = dir.resolve("empty.jar");
+        try (OutputStream os = Files.newOutputStream(source); ZipOutputStream zos = new ZipOutputStream(os)) {
+            zos.setComment("vacio");
+        }
+        Path target = dir.resolve("target.jar");
+        JarRewriter.rewrite(source, target, Map.of());
+        try (ZipFile rewritten = new ZipFile(target.toFile())) {
+            assertEquals(0, rewritten.size());
+            assertEquals("vacio", rewritten.getComment());
+            assertNull(rewritten.getEntry("org/"));
+        }
+    }
+
+    private Path properties(String content) throws IOException {
+        Path file = Files.createTempFile(dir, "bundle", ".properties");
+        Files.write(file, content.getBytes(StandardCharsets.ISO_8859_1));
+        return file;
+    }
+
+    private static byte[] read(ZipFile zip, ZipEntry entry) throws IOException {
+        try (InputStream is = zip.getInputStream(entry)) {
+            return is.readAllBytes();
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PropertiesParserTest {
+
+    private static final String TRICKY = "# comentario\r\n"
+            + "! otro comentario \\\r\n"
+            + "\n"
+            + "   title = Title  \n"
+            + "colon:value\n"
+            + "space value with spaces\n"
+            + "key\\ with\\ spaces=v\n"
+            + "key\\=with\\:separators = =v\n"
+            + "empty=\n"
+            + "alone\n"
+            + "unicode=T\\u00edtulo \\u20ac\n"
+            + "latin1=a\u00f1o\n"
+            + "escapes=\\t\\n\\r\\f\\\\\\x\n"
+            + "continued=uno, \\\r\n"
+            + "        dos, \\\n"
+            + "   \ttres\r"
+            + "\\#notcomment=1\n"
+            + "last=no newline\\";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void parsesLikeProperties() throws IOException {
+        Path file = write(TRICKY);
+        Map<String, String> parsed = new PropertiesParser().parse(file);
+        assertEquals(load(file), parsed);
+        assertEquals("Title  ", parsed.get("title"));
+        assertEquals("uno, dos, tres", parsed.get("continued"));
+    }
+
+    @Test
+    void readsWhatEscapeWrites() throws IOException {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put(" leading space", "  leading and trailing  ");
+        properties.put("separators=:#!", "#!=: value");
+        properties.put("tab\tnew\nline", "back\\slash\r\f");
+        properties.put("unicode \u00f1 \u20ac", "\u00bfT\u00edtulo? \u20ac \ud83d\ude00");
+        properties.put("empty", "");
+        StringBuilder content = new StringBuilder();
+        properties.forEach((key, value) -> content.append(PropertiesParser.escape(key, true)).append('=').append(PropertiesParser.escape(value, false)).append('\n'));
+        Path file = write(content.toString());
+
+        Map<String, String> parsed = new PropertiesParser().parse(file);
+        assertEquals(properties, parsed);
+        assertEquals(load(file), parsed);
+    }
+
+    /**
+     * The buffers grow for a large file and are reused, with the right
+     * limits, for the next one.
+     */
+    @Test
+    void reusesBuffers() throws IOException {
+        StringBuilder large = new StringBuilder("long=");
+        for (int i = 0; i < 100_000; i++) {
+            large.append((char) ('a' + i % 26));
+        }
+        large.append("\nafter=1\n");
+        PropertiesParser parser = new PropertiesParser();
+        Path first = write(large.toString());
+        assertEquals(load(first), parser.parse(first));
+        Path second = write("short=1\n");
+        assertEquals(Map.of("short", "1"), parser.parse(second));
+        Path third = write(TRICKY);
+        assertEquals(load(third), parser.parse(third));
+    }
+
+    private Path write(String content) throws IOException {
+        Path file = Files.createTempFile(dir, "Bundle", ".properties");
+        Files.write(file, content.getBytes(StandardCharsets.ISO_8859_1));
+        return file;
+    }
+
+    private static Map<String, String> load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(file)) {
+            properties.load(is);
+        }
+        Map<String, String> map = new LinkedHashMap<>();
+        properties.stringPropertyNames().forEach((key) -> map.put(key, properties.getProperty(key)));
+        return map;
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchIndexTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void findsWhatItIndexes() throws IOException {
+        List<EntryLocalization> entries = Arrays.asList(
+                entry("org-foo", "CTL_OpenProject=&Open Project...\nLBL_Title=Title\n"),
+                entry("org-bar", "CTL_CloseProject=Close Project\nMSG_Saved=Proyecto guardado\n"));
+        Path file = dir.resolve("search.idx");
+        update(file, entries, entries);
+        check(SearchIndex.read(file));
+        check(SearchIndex.map(file));
+    }
+
+    /**
+     * The JARs not extracted again are copied from the previous index,
+     * without reading their bundles.
+     */
+    @Test
+    void keepsTheRecordsOfTheJarsNotExtracted() throws IOException {
+        EntryLocalization foo = entry("org-foo", "CTL_OpenProject=&Open Project...\n");
+        EntryLocalization bar = entry("org-bar", "CTL_CloseProject=Close Project\n");
+        Path file = dir.resolve("search.idx");
+        update(file, Arrays.asList(foo, bar), Arrays.asList(foo, bar));
+
+        Files.delete(foo.getBundleOutputPath().get(0));
+        write(bar.getBundleOutputPath().get(0), "CTL_CloseProject=Close All\n");
+        EntryLocalization baz = entry("org-baz", "LBL_Project=Project\n");
+        update(file, Arrays.asList(foo, bar, baz), Collections.singletonList(bar));
+
+        SearchIndex index = SearchIndex.read(file);
+        assertEquals(3, index.size());
+        assertEquals(Arrays.asList("CTL_OpenProject"), keys(index.find("open", (jar) -> true, 10)));
+        assertEquals(Arrays.asList("CTL_CloseProject"), keys(index.find("all", (jar) -> true, 10)));
+        assertEquals(Arrays.asList("LBL_Project"), keys(index.find("lbl", (jar) -> true, 10)));
+
+        update(file, Arrays.asList(bar), Collections.emptyList());
+        index = SearchIndex.read(file);
+        assertEquals(1, index.size());
+        assertEquals(Collections.emptyList(), keys(index.find("open", (jar) -> true, 10)));
+    }
+
+    @Test
+    void recreatesAnUnreadableIndex() throws IOException {
+        Path file = dir.resolve("search.idx");
+        Files.write(file, "[]".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IOException.class, () -> SearchIndex.read(file));
+
+        List<EntryLocalization> entries = Arrays.asList(entry("org-foo", "CTL_OpenProject=Open Project\n"));
+        update(file, entries, Collections.emptyList());
+        assertEquals(1, SearchIndex.read(file).size());
+    }
+
+    @Test
+    void splitsWords() {
+        assertEquals(Arrays.asList("ctl", "open", "project"), SearchIndex.words("CTL_OpenProject", true));
+        assertEquals(Arrays.asList("openproject"), SearchIndex.words("OpenProject", false));
+        assertEquals(Arrays.asList("open", "project"), SearchIndex.words("&Open Project...", false));
+        assertEquals(Arrays.asList("a\u00f1o", "2019"), SearchIndex.words("A\u00f1o: 2019", false));
+        assertEquals(Collections.emptyList(), SearchIndex.words("...", false));
+    }
+
+    private static void check(SearchIndex index) {
+        assertEquals(4, index.size());
+        List<SearchIndex.Match> matches = index.find("project", (jar) -> true, 10);
+        assertEquals(Arrays.asList("CTL_OpenProject", "CTL_CloseProject"), keys(matches));
+        assertEquals("&Open Project...", matches.get(0).getValue());
+        assertEquals(Paths.get("/nb/org-foo.jar"), matches.get(0).getJar());
+        assertTrue(matches.get(0).getBundle().endsWith(Paths.get("org-foo", "org", "Bundle.properties")));
+
+        assertEquals(Arrays.asList("CTL_OpenProject"), keys(index.find("open proj", (jar) -> true, 10)));
+        assertEquals(Arrays.asList("CTL_OpenProject"), keys(index.find("CTL_OpenProject", (jar) -> true, 10)));
+        assertEquals(Arrays.asList("CTL_OpenProject"), keys(index.find("OpenProject", (jar) -> true, 10)));
+        assertEquals(Arrays.asList("CTL_CloseProject"), keys(index.find("ctl_closeproj", (jar) -> true, 10)));
+        assertEquals(Arrays.asList("MSG_Saved"), keys(index.find("MSG_Saved", (jar) -> true, 10)));
+        assertEquals(Arrays.asList("CTL_OpenProject", "CTL_CloseProject"), keys(index.find("PROJ", (jar) -> true, 10)));
+        assertEquals(Collections.emptyList(), keys(index.find("proj open", (jar) -> true, 10)));
+        assertEquals(Arrays.asList("MSG_Saved"), keys(index.find("guardado", (jar) -> true, 10)));
+        assertEquals(Arrays.asList("CTL_CloseProject"), keys(index.find("project", (jar) -> jar.endsWith("org-bar.jar"), 10)));
+        assertEquals(Arrays.asList("CTL_OpenProject"), keys(index.find("project", (jar) -> true, 1)));
+        assertEquals(Collections.emptyList(), keys(index.find("missing", (jar) -> true, 10)));
+        assertEquals(Collections.emptyList(), keys(index.find(" & ", (jar) -> true, 10)));
+    }
+
+    private EntryLocalization entry(String name, String bundle) throws IOException {
+        EntryLocalization entry = new EntryLocalization(Paths.get("/nb", name + ".jar"), dir.resolve(name));
+        Path path = dir.resolve(name).resolve("org").resolve("Bundle.properties");
+        Files.createDirectories(path.getParent());
+        write(path, bundle);
+        entry.addBundleOutputPath(path);
+        return entry;
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static void update(Path file, List<EntryLocalization> entries, List<EntryLocalization> extracted) throws IOException {
+        SearchIndex.update(file, entries, extracted, new Concurrency(2), new RunMetrics("init"));
+    }
+
+    private static List<String> keys(List<SearchIndex.Match> matches) {
+        return matches.stream().map(SearchIndex.Match::getKey).collect(Collectors.toList());
+    }
+
+}
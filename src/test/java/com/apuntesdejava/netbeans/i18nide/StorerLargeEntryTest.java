@@ -0,0 +1,179 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stores a translation into a JAR with a 500 MB entry, in a JVM limited to
+ * 64 MB of heap, and checks the entry survives the rewrite.
+ */
+class StorerLargeEntryTest {
+
+    private static final long LARGE_SIZE = 500L * 1024 * 1024;
+    private static final String LARGE_NAME = "org/foo/large.bin";
+    private static final String BUNDLE = "org/foo/Bundle.properties";
+    private static final String BUNDLE_ES = "Bundle_es.properties";
+    private static final String TRANSLATION = "title=Titulo\n";
+    private static final String REBUILT = "se reconstruye entrada por entrada";
+
+    @TempDir
+    Path dir;
+
+    /**
+     * The unchanged entries are copied with their compressed bytes.
+     */
+    @Test
+    void storesRawCopy() throws Exception {
+        assertFalse(store(0).contains(REBUILT));
+    }
+
+    /**
+     * A ZIP64 archive, with more than 65535 entries, is rebuilt entry by
+     * entry, so the large entry is inflated and deflated again.
+     */
+    @Test
+    void storesEntryByEntry() throws Exception {
+        assertTrue(store(0x10000).contains(REBUILT));
+    }
+
+    /**
+     * @return the output of the forked JVM
+     */
+    private String store(int padding) throws Exception {
+        Path jar = dir.resolve("org-foo.jar");
+        long crc = createJar(jar, padding);
+        Path outputDir = dir.resolve("org-foo");
+        Files.createDirectories(outputDir.resolve(BUNDLE).getParent());
+        Files.write(outputDir.resolve(BUNDLE).resolveSibling(BUNDLE_ES), TRANSLATION.getBytes(StandardCharsets.ISO_8859_1));
+
+        Path log = dir.resolve("store.out");
+        Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Xmx64m", "-cp", System.getProperty("java.class.path"),
+                StorerLargeEntryTest.class.getName(), jar.toString(), outputDir.toString())
+                .directory(dir.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+        assertTrue(process.waitFor(5, TimeUnit.MINUTES), "store no termino");
+        String output = read(log);
+        assertEquals(0, process.exitValue(), output);
+
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            ZipEntry large = zip.getEntry(LARGE_NAME);
+            assertNotNull(large);
+            assertEquals(LARGE_SIZE, large.getSize());
+            assertEquals(crc, large.getCrc());
+            CRC32 actual = new CRC32();
+            byte[] buffer = new byte[Streams.BUFFER_SIZE];
+            try (InputStream is = zip.getInputStream(large)) {
+                for (int n; (n = is.read(buffer)) >= 0;) {
+                    actual.update(buffer, 0, n);
+                }
+            }
+            assertEquals(crc, actual.getValue());
+            ZipEntry bundle = zip.getEntry("org/foo/" + BUNDLE_ES);
+            assertNotNull(bundle);
+            try (InputStream is = zip.getInputStream(bundle)) {
+                assertEquals(TRANSLATION, new String(is.readAllBytes(), StandardCharsets.ISO_8859_1));
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Streams the large entry from a short repeated pattern, so the JAR
+     * stays small on disk.
+     *
+     * @return the CRC of the large entry
+     */
+    private static long createJar(Path jar, int padding) throws IOException {
+        byte[] pattern = new byte[1021];
+        for (int i = 0; i < pattern.length; i++) {
+            pattern[i] = (byte) (i * 31 + 7);
+        }
+        byte[] buffer = new byte[pattern.length * 64];
+        for (int i = 0; i < buffer.length; i += pattern.length) {
+            System.arraycopy(pattern, 0, buffer, i, pattern.length);
+        }
+        CRC32 crc = new CRC32();
+        try (OutputStream os = Files.newOutputStream(jar); JarOutputStream jos = new JarOutputStream(os)) {
+            jos.putNextEntry(new JarEntry(BUNDLE));
+            jos.write("title=Title\n".getBytes(StandardCharsets.ISO_8859_1));
+            jos.closeEntry();
+            jos.putNextEntry(new JarEntry(LARGE_NAME));
+            for (long written = 0; written < LARGE_SIZE;) {
+                int n = (int) Math.min(buffer.length, LARGE_SIZE - written);
+                jos.write(buffer, 0, n);
+                crc.update(buffer, 0, n);
+                written += n;
+            }
+            jos.closeEntry();
+            for (int i = 0; i < padding; i++) {
+                jos.putNextEntry(new JarEntry("org/foo/padding/" + i));
+                jos.closeEntry();
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static String read(Path file) {
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            return ex.getMessage();
+        }
+    }
+
+    /**
+     * Runs in the forked JVM: stores the translation into the JAR and exits
+     * with 1 unless it was rewritten.
+     */
+    public static void main(String[] args) throws IOException {
+        Path jar = Paths.get(args[0]);
+        Path outputDir = Paths.get(args[1]);
+        EntryLocalization entry = new EntryLocalization(jar, outputDir);
+        entry.addBundleOutputPath(outputDir.resolve(BUNDLE));
+        int rewritten;
+        try (StoreJournal journal = StoreJournal.open(Paths.get(StoreJournal.FILENAME))) {
+            rewritten = new Storer(Collections.singletonList(BUNDLE_ES), new Concurrency(1), new RunMetrics("store"))
+                    .store(List.of(entry), new StoreManifest(), false, journal);
+        }
+        System.exit(rewritten == 1 ? 0 : 1);
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StorerTest {
+
+    private static final String BUNDLE = "org/foo/Bundle.properties";
+    private static final String BUNDLE_ES = "Bundle_es.properties";
+    private static final String ENTRY_ES = "org/foo/" + BUNDLE_ES;
+
+    @TempDir
+    Path dir;
+
+    private Path jar;
+    private Path outputDir;
+    private byte[] original;
+
+    @BeforeEach
+    void createJar() throws IOException {
+        jar = Files.createDirectories(dir.resolve("nb")).resolve("org-foo.jar");
+        try (OutputStream os = Files.newOutputStream(jar); ZipOutputStream zos = new ZipOutputStream(os)) {
+            zos.putNextEntry(new ZipEntry(BUNDLE));
+            zos.write("title=Title\n".getBytes(StandardCharsets.ISO_8859_1));
+            zos.closeEntry();
+        }
+        original = Files.readAllBytes(jar);
+        outputDir = dir.resolve("out").resolve("org-foo");
+        Files.createDirectories(outputDir.resolve(BUNDLE).getParent());
+        Files.write(outputDir.resolve(BUNDLE), "title=Title\n".getBytes(StandardCharsets.ISO_8859_1));
+        Files.write(outputDir.resolve(BUNDLE).resolveSibling(BUNDLE_ES), "title=Titulo\n".getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * The store that follows an interrupted one appends to its journal, so
+     * the rollback still finds the backup of the original JAR.
+     */
+    @Test
+    void rollsBackAResumedStore() throws IOException {
+        Path journalFile = dir.resolve(StoreJournal.FILENAME);
+        String date = "2019-01-01_000000";
+        Path temp = jar.resolveSibling(jar.getFileName() + ".i18n-tmp");
+        Path backup = jar.resolveSibling(jar.getFileName() + "-" + date);
+        // a store cut right after its JAR was prepared
+        try (StoreJournal journal = StoreJournal.open(journalFile)) {
+            journal.begin(date);
+            JarRewriter.rewrite(jar, temp, Map.of(ENTRY_ES, outputDir.resolve(BUNDLE).resolveSibling(BUNDLE_ES)));
+            Files.createLink(backup, jar);
+            journal.prepared(jar.toRealPath(), temp, backup, true);
+        }
+
+        StoreManifest manifest = new StoreManifest();
+        try (StoreJournal journal = StoreJournal.open(journalFile)) {
+            assertTrue(journal.isInterrupted());
+            Storer.resume(journal);
+            assertTrue(hasTranslation(jar));
+            assertEquals(1, storer().store(entries(jar), manifest, false, journal));
+        }
+        assertTrue(hasTranslation(jar));
+
+        try (StoreJournal journal = StoreJournal.open(journalFile)) {
+            assertFalse(journal.isInterrupted());
+            assertEquals(1, Storer.rollback(journal, manifest));
+        }
+        assertArrayEquals(original, Files.readAllBytes(jar));
+        assertEquals(Arrays.asList(jar), Files.list(jar.getParent()).toList());
+        assertFalse(Files.exists(journalFile));
+        assertTrue(manifest.getJars().isEmpty());
+    }
+
+    /**
+     * The manifest is keyed by the configured path, a link here, and the
+     * journal by the real one; the rollback forgets the JAR in the manifest
+     * all the same, so the next incremental store writes it again.
+     */
+    @Test
+    void forgetsALinkedJarInTheManifest() throws IOException {
+        Path link = Files.createSymbolicLink(dir.resolve("org-foo-link.jar"), jar);
+        Path journalFile = dir.resolve(StoreJournal.FILENAME);
+        StoreManifest manifest = new StoreManifest();
+        try (StoreJournal journal = StoreJournal.open(journalFile)) {
+            assertEquals(1, storer().store(entries(link), manifest, true, journal));
+        }
+        assertEquals(Collections.singleton(link.toString()), manifest.getJars().keySet());
+        assertTrue(Files.exists(SourceHashes.file(outputDir.resolve(BUNDLE).resolveSibling(BUNDLE_ES))));
+
+        try (StoreJournal journal = StoreJournal.open(journalFile)) {
+            assertEquals(1, Storer.rollback(journal, manifest));
+        }
+        assertArrayEquals(original, Files.readAllBytes(jar));
+        assertTrue(Files.isSymbolicLink(link));
+        assertTrue(manifest.getJars().isEmpty());
+        try (StoreJournal journal = StoreJournal.open(journalFile)) {
+            assertEquals(1, storer().store(entries(link), manifest, true, journal));
+        }
+        assertTrue(hasTranslation(jar));
+    }
+
+    private List<EntryLocalization> entries(Path sourcePath) {
+        EntryLocalization entry = new EntryLocalization(sourcePath, outputDir);
+        entry.addBundleOutputPath(outputDir.resolve(BUNDLE));
+        return Collections.singletonList(entry);
+    }
+
+    private static Storer storer() {
+        return new Storer(Collections.singletonList(BUNDLE_ES), new Concurrency(1), new RunMetrics("store"));
+    }
+
+    private static boolean hasTranslation(Path jar) throws IOException {
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            ZipEntry entry = zip.getEntry(ENTRY_ES);
+            if (entry == null) {
+                return false;
+            }
+            try (InputStream is = zip.getInputStream(entry)) {
+                return "title=Titulo\n".equals(new String(is.readAllBytes(), StandardCharsets.ISO_8859_1));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StructureIndexTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsWhatItWrites() throws IOException {
+        List<EntryLocalization> entries = entries();
+        Path file = dir.resolve("structure.idx");
+        StructureIndex.write(entries, file);
+        check(entries, StructureIndex.read(file));
+        check(entries, StructureIndex.map(file));
+    }
+
+    @Test
+    void replacesThePreviousIndex() throws IOException {
+        Path file = dir.resolve("structure.idx");
+        StructureIndex.write(entries(), file);
+        List<EntryLocalization> entries = entries().subList(0, 1);
+        StructureIndex.write(entries, file);
+        check(entries, StructureIndex.read(file));
+        assertEquals(Arrays.asList(file), Files.list(dir).toList());
+    }
+
+    @Test
+    void writesEmptyIndex() throws IOException {
+        Path file = dir.resolve("structure.idx");
+        StructureIndex.write(new ArrayList<>(), file);
+        assertEquals(0, StructureIndex.read(file).size());
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        Path file = dir.resolve("structure.json");
+        Files.write(file, "[]".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IOException.class, () -> StructureIndex.read(file));
+    }
+
+    @Test
+    void rejectsTruncatedIndex() throws IOException {
+        Path file = dir.resolve("structure.idx");
+        StructureIndex.write(entries(), file);
+        byte[] index = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(index, 20));
+        assertThrows(IOException.class, () -> StructureIndex.read(file));
+    }
+
+    /**
+     * A JAR with fingerprint and bundles, a nested JAR with fingerprint but
+     * no hash, and a JAR with neither, sharing directories.
+     */
+    private List<EntryLocalization> entries() {
+        List<EntryLocalization> entries = new ArrayList<>();
+        Path output = dir.resolve("out");
+
+        EntryLocalization plain = new EntryLocalization(Paths.get("/nb/platform/modules/org-foo.jar"), output.resolve("org-foo"));
+        plain.addBundleOutputPath(output.resolve("org-foo/org/foo/Bundle.properties"));
+        plain.addBundleOutputPath(output.resolve("org-foo/org/foo/ui/Bundle.properties"));
+        plain.setFingerprint(fingerprint(1234, 5678, "abcdef"));
+        entries.add(plain);
+
+        EntryLocalization nested = new EntryLocalization(Paths.get("/nb/update/org-bar.nbm!/netbeans/modules/org-bar.jar"), output.resolve("org-bar"));
+        nested.addBundleOutputPath(output.resolve("org-bar/org/bar/Bundle.properties"));
+        nested.setFingerprint(fingerprint(1, 2, null));
+        entries.add(nested);
+
+        entries.add(new EntryLocalization(Paths.get("/nb/platform/modules/org-baz.jar"), output.resolve("org-baz")));
+        return entries;
+    }
+
+    private static JarFingerprint fingerprint(long size, long lastModified, String hash) {
+        JarFingerprint fingerprint = new JarFingerprint();
+        fingerprint.setSize(size);
+        fingerprint.setLastModified(lastModified);
+        fingerprint.setDirectoryHash(hash);
+        return fingerprint;
+    }
+
+    private static void check(List<EntryLocalization> expected, StructureIndex actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            EntryLocalization entry = expected.get(i);
+            EntryLocalization read = actual.get(i);
+            assertEquals(entry.getSourcePath(), read.getSourcePath());
+            assertEquals(entry.getOutputPath(), read.getOutputPath());
+            assertEquals(entry.getBundleOutputPath(), read.getBundleOutputPath());
+            if (entry.getFingerprint() == null) {
+                assertNull(read.getFingerprint());
+            } else {
+                assertEquals(entry.getFingerprint(), read.getFingerprint());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TranslationMemoryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsWhatItSaves() throws IOException {
+        Path file = dir.resolve("memory").resolve("es.tm");
+        Map<String, String> translations = translations(1000);
+        TranslationMemory memory = TranslationMemory.load(file, 16);
+        assertEquals(0, memory.size());
+        translations.forEach(memory::put);
+        assertEquals(translations.size(), memory.added());
+        memory.save();
+
+        TranslationMemory loaded = TranslationMemory.load(file, 16);
+        assertEquals(translations.size(), loaded.size());
+        assertEquals(0, loaded.added());
+        translations.forEach((source, translation) -> assertEquals(translation, loaded.get(source), source));
+        assertNull(loaded.get("Not translated"));
+        assertNull(loaded.get(""));
+    }
+
+    @Test
+    void mergesWithTheFile() throws IOException {
+        Path file = dir.resolve("es.tm");
+        TranslationMemory memory = TranslationMemory.load(file, 2);
+        memory.put("Open", "Abrir");
+        memory.put("Close", "Cerrar");
+        memory.save();
+
+        TranslationMemory second = TranslationMemory.load(file, 2);
+        second.put("Open", "Abrir");
+        assertEquals(0, second.added());
+        second.put("Close", "Cerrar ventana");
+        second.put("Save", "Guardar");
+        assertEquals(2, second.added());
+        assertEquals("Cerrar ventana", second.get("Close"));
+        second.save();
+
+        TranslationMemory third = TranslationMemory.load(file, 2);
+        assertEquals(3, third.size());
+        assertEquals("Abrir", third.get("Open"));
+        assertEquals("Cerrar ventana", third.get("Close"));
+        assertEquals("Guardar", third.get("Save"));
+        assertEquals(Arrays.asList(file), Files.list(dir).toList());
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        Path file = dir.resolve("es.tm");
+        Files.write(file, "[]".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IOException.class, () -> TranslationMemory.load(file, 2));
+
+        TranslationMemory memory = TranslationMemory.load(dir.resolve("ok.tm"), 2);
+        memory.put("Open", "Abrir");
+        memory.save();
+        byte[] saved = Files.readAllBytes(dir.resolve("ok.tm"));
+        Files.write(file, Arrays.copyOf(saved, 12));
+        assertThrows(IOException.class, () -> TranslationMemory.load(file, 2));
+    }
+
+    /**
+     * Sources with accents, symbols and characters outside the BMP, some of
+     * them sharing a prefix.
+     */
+    private static Map<String, String> translations(int count) {
+        Map<String, String> translations = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            translations.put("Source " + i + (i % 3 == 0 ? " \u00e9\u20ac\ud83d\ude00" : ""), "Traducci\u00f3n " + i + (i % 5 == 0 ? "\n" : ""));
+        }
+        translations.put("Source", "");
+        return translations;
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TranslationStatusTest {
+
+    @TempDir
+    Path dir;
+
+    private Path bundle;
+    private Path translation;
+    private EntryLocalization entry;
+
+    @BeforeEach
+    void createBundles() throws IOException {
+        bundle = Files.createDirectories(dir.resolve("org-foo/org/foo")).resolve("Bundle.properties");
+        translation = bundle.resolveSibling("Bundle_es.properties");
+        entry = new EntryLocalization(Paths.get("/nb/org-foo.jar"), dir.resolve("org-foo"));
+        entry.addBundleOutputPath(bundle);
+    }
+
+    @Test
+    void countsMissingExtraAndIdentical() throws IOException {
+        write(bundle, "title=Title\nok=OK\nempty=\nmessage=Message\n");
+        write(translation, "title=Titulo\nok=OK\nempty=\nold=Viejo\n");
+        BundleCoverage coverage = check();
+        assertEquals(4, coverage.getKeys());
+        assertEquals(Arrays.asList("message"), coverage.getMissingKeys());
+        assertEquals(Arrays.asList("old"), coverage.getExtraKeys());
+        assertEquals(Arrays.asList("ok"), coverage.getIdenticalKeys());
+        assertEquals(Collections.emptyList(), coverage.getStaleKeys());
+        assertEquals(3, coverage.getTranslated());
+        assertFalse(coverage.isComplete());
+    }
+
+    /**
+     * A key is stale from the change of its original until its translation
+     * changes; storing again does not clear it.
+     */
+    @Test
+    void reportsTheKeysWhoseOriginalChanged() throws IOException {
+        write(bundle, "title=Title\nmessage=Message\n");
+        write(translation, "title=Titulo\nmessage=Mensaje\n");
+        SourceHashes.record(Collections.singletonList(translation));
+        assertTrue(check().isComplete());
+
+        write(bundle, "title=Window Title\nmessage=Message\n");
+        BundleCoverage coverage = check();
+        assertEquals(Arrays.asList("title"), coverage.getStaleKeys());
+        assertEquals(Collections.emptyList(), coverage.getMissingKeys());
+        assertFalse(coverage.isComplete());
+
+        SourceHashes.record(Collections.singletonList(translation));
+        assertEquals(Arrays.asList("title"), check().getStaleKeys());
+
+        write(translation, "title=Titulo de la ventana\nmessage=Mensaje\n");
+        assertTrue(check().isComplete());
+        SourceHashes.record(Collections.singletonList(translation));
+        assertTrue(check().isComplete());
+    }
+
+    @Test
+    void addsUpTotals() throws IOException {
+        write(bundle, "title=Title\nmessage=Message\n");
+        write(translation, "title=Titulo\n");
+        TranslationStatus status = new TranslationStatus(Collections.singletonList("es"), new Concurrency(1), new RunMetrics("status"));
+        List<BundleCoverage> coverages = status.check(Arrays.asList(entry, entry));
+        BundleCoverage total = status.totals(coverages).get("es");
+        assertEquals(4, total.getKeys());
+        assertEquals(2, total.getMissing());
+        assertEquals(50.0, total.getCoverage());
+    }
+
+    private BundleCoverage check() {
+        List<BundleCoverage> coverages = new TranslationStatus(Collections.singletonList("es"), new Concurrency(1), new RunMetrics("status"))
+                .check(Collections.singletonList(entry));
+        assertEquals(1, coverages.size());
+        return coverages.get(0);
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019 Diego Silva Limaco <diego.silva at apuntesdejava.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apuntesdejava.netbeans.i18nide;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ZipCentralDirectoryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsWhatZipFileReads() throws IOException {
+        Path zip = dir.resolve("test.jar");
+        write(zip);
+        try (FileChannel channel = FileChannel.open(zip, StandardOpenOption.READ)) {
+            check(zip, channel, ZipCentralDirectory.read(channel));
+            check(zip, channel, ZipCentralDirectory.map(channel));
+        }
+    }
+
+    @Test
+    void rejectsZip64() throws IOException {
+        Path zip = dir.resolve("zip64.jar");
+        try (OutputStream os = Files.newOutputStream(zip); ZipOutputStream zos = new ZipOutputStream(os)) {
+            for (int i = 0; i < 0x10000; i++) {
+                zos.putNextEntry(new ZipEntry("e" + i));
+                zos.closeEntry();
+            }
+        }
+        try (FileChannel channel = FileChannel.open(zip, StandardOpenOption.READ)) {
+            assertThrows(ZipException.class, () -> ZipCentralDirectory.read(channel));
+        }
+    }
+
+    /**
+     * A record whose name, extra field or comment runs past the end of the
+     * central directory.
+     */
+    @Test
+    void rejectsTruncatedRecord() throws IOException {
+        for (int field : new int[]{28, 30, 32}) {
+            Path zip = dir.resolve("truncated-" + field + ".jar");
+            write(zip);
+            byte[] bytes = Files.readAllBytes(zip);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            int end = bytes.length - ZipCentralDirectory.END_HEADER - "comentario".length();
+            assertEquals(ZipCentralDirectory.END_SIG, buffer.getInt(end));
+            int cenOffset = buffer.getInt(end + 16);
+            int cenSize = buffer.getInt(end + 12);
+            // the last record
+            int pos = cenOffset;
+            int last = pos;
+            while (pos < cenOffset + cenSize) {
+                last = pos;
+                pos += ZipCentralDirectory.CEN_HEADER + Short.toUnsignedInt(buffer.getShort(pos + 28))
+                        + Short.toUnsignedInt(buffer.getShort(pos + 30)) + Short.toUnsignedInt(buffer.getShort(pos + 32));
+            }
+            buffer.putShort(last + field, (short) (Short.toUnsignedInt(buffer.getShort(last + field)) + 1));
+            Files.write(zip, bytes);
+            try (FileChannel channel = FileChannel.open(zip, StandardOpenOption.READ)) {
+                assertThrows(ZipException.class, () -> ZipCentralDirectory.read(channel));
+                assertThrows(ZipException.class, () -> ZipCentralDirectory.map(channel));
+            }
+        }
+    }
+
+    @Test
+    void rejectsNonZip() throws IOException {
+        Path file = dir.resolve("test.txt");
+        Files.write(file, "no es un zip".getBytes(StandardCharsets.UTF_8));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertThrows(ZipException.class, () -> ZipCentralDirectory.read(channel));
+        }
+    }
+
+    /**
+     * Writes a directory, a deflated entry with a data descriptor, a stored
+     * entry, a UTF-8 name and an archive comment.
+     */
+    static void write(Path zip) throws IOException {
+        try (OutputStream os = Files.newOutputStream(zip); ZipOutputStream zos = new ZipOutputStream(os)) {
+            zos.setComment("comentario");
+            zos.putNextEntry(new ZipEntry("org/foo/"));
+            zos.closeEntry();
+            zos.putNextEntry(new ZipEntry("org/foo/Bundle.properties"));
+            zos.write("title=Title\nmessage=Message\n".getBytes(StandardCharsets.ISO_8859_1));
+            zos.closeEntry();
+            byte[] stored = "stored content".getBytes(StandardCharsets.UTF_8);
+            CRC32 crc = new CRC32();
+            crc.update(stored);
+            ZipEntry entry = new ZipEntry("org/foo/stored.txt");
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(stored.length);
+            entry.setCompressedSize(stored.length);
+            entry.setCrc(crc.getValue());
+            zos.putNextEntry(entry);
+            zos.write(stored);
+            zos.closeEntry();
+            zos.putNextEntry(new ZipEntry("org/foo/a\u00f1o.txt"));
+            zos.write(new byte[100_000]);
+            zos.closeEntry();
+        }
+    }
+
+    private static void check(Path zip, FileChannel channel, ZipCentralDirectory directory) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            assertEquals(zipFile.size(), directory.entries());
+            assertEquals("comentario", StandardCharsets.UTF_8.decode(directory.comment()).toString());
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            for (int pos = directory.first(); pos < directory.end(); pos = directory.next(pos)) {
+                ZipEntry expected = entries.nextElement();
+                String name = directory.name(pos);
+                names.add(name);
+                assertEquals(expected.getName(), name);
+                assertEquals(expected.getCrc(), directory.crc(pos));
+                assertEquals(expected.getSize(), directory.size(pos));
+                assertEquals(expected.getCompressedSize(), directory.compressedSize(pos));
+                assertEquals(expected.getMethod(), directory.method(pos));
+                assertEquals(expected.isDirectory(), directory.isDirectory(pos));
+                assertTrue(directory.nameEndsWith(pos, name.substring(name.length() / 2).getBytes(StandardCharsets.UTF_8)));
+                try (InputStream expectedContent = zipFile.getInputStream(expected); InputStream content = directory.open(channel, pos)) {
+                    assertArrayEquals(expectedContent.readAllBytes(), content.readAllBytes(), name);
+                }
+            }
+            assertFalse(entries.hasMoreElements());
+        }
+        assertTrue(names.contains("org/foo/a\u00f1o.txt"));
+    }
+
+}